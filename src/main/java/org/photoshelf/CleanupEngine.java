@@ -0,0 +1,381 @@
+package org.photoshelf;
+
+import org.photoshelf.cache.EntryMetadata;
+import org.photoshelf.cache.ThumbnailAtlas;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes catalog rows, thumbnail cache entries and thumbnail atlases whose files or
+ * directories no longer exist.
+ * <p>
+ * Instead of testing every path on its own, which on a network mount costs a round trip
+ * per row, the engine reads all paths of the catalog tables and of the cache index, groups
+ * them by directory and lists each directory once, several at a time. The orphans are the
+ * paths whose names are missing from their directory's listing. They are deleted in
+ * batches, each in its own transaction, so a cancelled run keeps what it already removed.
+ * A directory that exists but cannot be listed is skipped rather than treated as empty.
+ */
+public class CleanupEngine {
+    /** Catalog tables keyed by {@code file_path}, in the order they are cleaned. */
+    private static final String[] TABLES = {"keywords", "image_hashes", "file_fingerprints"};
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Receives the progress of a run, from the thread that calls {@link #run}.
+     */
+    public interface ProgressListener {
+        /**
+         * @param stage     What is being done, e.g. "Listing directories".
+         * @param completed The units of work done in this stage.
+         * @param total     The units of work in this stage.
+         */
+        void progress(String stage, int completed, int total);
+    }
+
+    /**
+     * The number of rows and entries a run removed.
+     */
+    public static final class Result {
+        private final Map<String, Integer> removedRows;
+        private final int removedCacheEntries;
+        private final int removedAtlases;
+        private final int directories;
+        private final int unreadableDirectories;
+        private final boolean cancelled;
+
+        Result(Map<String, Integer> removedRows, int removedCacheEntries, int removedAtlases, int directories,
+               int unreadableDirectories, boolean cancelled) {
+            this.removedRows = Collections.unmodifiableMap(new HashMap<>(removedRows));
+            this.removedCacheEntries = removedCacheEntries;
+            this.removedAtlases = removedAtlases;
+            this.directories = directories;
+            this.unreadableDirectories = unreadableDirectories;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * @param table A catalog table, e.g. "keywords".
+         * @return The number of rows removed from it.
+         */
+        public int getRemovedRows(String table) {
+            return removedRows.getOrDefault(table, 0);
+        }
+
+        public int getRemovedCacheEntries() {
+            return removedCacheEntries;
+        }
+
+        public int getRemovedAtlases() {
+            return removedAtlases;
+        }
+
+        /**
+         * @return The number of directories that were listed.
+         */
+        public int getDirectories() {
+            return directories;
+        }
+
+        /**
+         * @return The number of directories that exist but could not be listed, whose
+         *         entries were kept.
+         */
+        public int getUnreadableDirectories() {
+            return unreadableDirectories;
+        }
+
+        /**
+         * @return true if the run was cancelled before it finished.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final DatabaseManager dbManager;
+    private final HybridCache<String, ?> thumbnailCache;
+    private final int threads;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean cancelled;
+
+    /**
+     * @param thumbnailCache The thumbnail cache to clean, or null to clean only the catalog.
+     * @param threads        The number of directories listed at the same time.
+     */
+    public CleanupEngine(HybridCache<String, ?> thumbnailCache, int threads) {
+        this.dbManager = DatabaseManager.getInstance();
+        this.thumbnailCache = thumbnailCache;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Asks a run to stop. Listing stops at once; deletion stops after the current batch.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits for a run that is in progress to return.
+     *
+     * @return true if the run finished within the timeout.
+     */
+    public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Cleans the catalog, then the thumbnail cache, then the thumbnail atlases. Cache
+     * entries stay while any remaining file still has the content they were made from.
+     * Atlases are deleted when their directory is gone or empty.
+     *
+     * @param listener Receives progress, or null.
+     * @return What was removed.
+     */
+    public Result run(ProgressListener listener) {
+        try {
+            return doRun(listener == null ? (stage, completed, total) -> { } : listener);
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    // --- Private Helper Methods ---
+
+    private Result doRun(ProgressListener listener) {
+        Map<String, Integer> removedRows = new HashMap<>();
+        Map<String, List<String>> catalogPaths = new HashMap<>();
+        Set<String> directories = new HashSet<>();
+        for (int i = 0; i < TABLES.length && !cancelled; i++) {
+            listener.progress("Reading catalog", i, TABLES.length);
+            List<String> paths = readPaths(TABLES[i]);
+            for (String path : paths) {
+                directories.add(parentOf(path));
+            }
+            catalogPaths.put(TABLES[i], paths);
+        }
+        List<EntryMetadata> cacheEntries = thumbnailCache == null ? List.of() : thumbnailCache.diskEntries();
+        for (EntryMetadata entry : cacheEntries) {
+            if (entry.getSourcePath() != null) {
+                directories.add(parentOf(entry.getSourcePath()));
+            }
+        }
+        Map<Path, String> atlases = ThumbnailAtlas.listAtlases();
+        for (String directory : atlases.values()) {
+            if (directory != null) {
+                directories.add(directory);
+            }
+        }
+        if (cancelled) {
+            return new Result(removedRows, 0, 0, 0, 0, true);
+        }
+
+        Map<String, Set<String>> listings = listDirectories(directories, listener);
+        int unreadable = (int) listings.values().stream().filter(names -> names == null).count();
+        if (cancelled) {
+            return new Result(removedRows, 0, 0, listings.size(), unreadable, true);
+        }
+
+        for (String table : TABLES) {
+            List<String> orphans = new ArrayList<>();
+            for (String path : catalogPaths.get(table)) {
+                if (isMissing(path, listings)) {
+                    orphans.add(path);
+                }
+            }
+            removedRows.put(table, deleteRows(table, orphans, listener));
+            if (table.equals("file_fingerprints")) {
+                FingerprintManager.getInstance().forget(orphans);
+            }
+            if (cancelled) {
+                return new Result(removedRows, 0, 0, listings.size(), unreadable, true);
+            }
+        }
+
+        int removedCache = 0;
+        if (!cacheEntries.isEmpty()) {
+            // Thumbnails are keyed by content, so keep those still mapped from an existing file.
+            // Entries are judged from the directory listings alone, never by stating each
+            // source, which on a network share would be a round trip per entry.
+            Set<String> fingerprints = FingerprintManager.getInstance().getAllFingerprints();
+            List<String> orphans = new ArrayList<>();
+            for (EntryMetadata entry : cacheEntries) {
+                if (entry.getSourcePath() != null
+                        && !fingerprints.contains(ThumbnailPyramid.fingerprintOf(entry.getKey()))
+                        && isMissing(entry.getSourcePath(), listings)) {
+                    orphans.add(entry.getKey());
+                }
+            }
+            for (int start = 0; start < orphans.size(); start += BATCH_SIZE) {
+                if (cancelled) {
+                    return new Result(removedRows, removedCache, 0, listings.size(), unreadable, true);
+                }
+                int end = Math.min(orphans.size(), start + BATCH_SIZE);
+                removedCache += thumbnailCache.removeDiskEntries(orphans.subList(start, end));
+                listener.progress("Cleaning thumbnail cache", end, orphans.size());
+            }
+        }
+        if (cancelled) {
+            return new Result(removedRows, removedCache, 0, listings.size(), unreadable, true);
+        }
+
+        // Atlases of other formats have no directory and are deleted too
+        int removedAtlases = 0;
+        if (!atlases.isEmpty()) {
+            listener.progress("Cleaning thumbnail atlases", 0, 1);
+            removedAtlases = ThumbnailAtlas.deleteAtlases(directory -> {
+                Set<String> names = listings.get(directory);
+                return names != null && names.isEmpty();
+            });
+            listener.progress("Cleaning thumbnail atlases", 1, 1);
+        }
+        return new Result(removedRows, removedCache, removedAtlases, listings.size(), unreadable, false);
+    }
+
+    private List<String> readPaths(String table) {
+        List<String> paths = new ArrayList<>();
+        Connection conn = dbManager.getConnection();
+        if (conn == null) return paths;
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT DISTINCT file_path FROM " + table);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                paths.add(rs.getString("file_path"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return paths;
+    }
+
+    /**
+     * Lists the directories in parallel.
+     *
+     * @return The names in each directory; an empty set for directories that are gone and
+     *         null for those that could not be listed.
+     */
+    private Map<String, Set<String>> listDirectories(Set<String> directories, ProgressListener listener) {
+        ExecutorService listService = Executors.newFixedThreadPool(threads);
+        Map<String, Future<Set<String>>> futures = new HashMap<>();
+        for (String directory : directories) {
+            futures.put(directory, listService.submit(() -> cancelled ? null : list(directory)));
+        }
+
+        Map<String, Set<String>> listings = new HashMap<>();
+        int total = futures.size();
+        try {
+            for (Map.Entry<String, Future<Set<String>>> future : futures.entrySet()) {
+                if (cancelled) break;
+                listings.put(future.getKey(), future.getValue().get());
+                if (listings.size() % 100 == 0 || listings.size() == total) {
+                    listener.progress("Listing directories", listings.size(), total);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } catch (ExecutionException e) {
+            System.err.println("Error listing directories: " + e.getCause());
+            cancelled = true;
+        } finally {
+            listService.shutdownNow();
+        }
+        return listings;
+    }
+
+    private static Set<String> list(String directory) {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Path.of(directory))) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+            return names;
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return Collections.emptySet();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Skipping unreadable directory " + directory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isMissing(String path, Map<String, Set<String>> listings) {
+        Set<String> names = listings.get(parentOf(path));
+        return names != null && !names.contains(new File(path).getName());
+    }
+
+    /**
+     * Deletes the rows of paths in batches of {@link #BATCH_SIZE} paths, committing each batch.
+     *
+     * @return The number of rows deleted.
+     */
+    private int deleteRows(String table, List<String> paths, ProgressListener listener) {
+        Connection conn = dbManager.getConnection();
+        if (conn == null || paths.isEmpty()) return 0;
+        String stage = "Deleting from " + table;
+        int deleted = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + table + " WHERE file_path = ?")) {
+            conn.setAutoCommit(false);
+            for (int start = 0; start < paths.size() && !cancelled; start += BATCH_SIZE) {
+                int end = Math.min(paths.size(), start + BATCH_SIZE);
+                for (String path : paths.subList(start, end)) {
+                    pstmt.setString(1, path);
+                    pstmt.addBatch();
+                }
+                // A path can have several rows, e.g. one per keyword
+                for (int count : pstmt.executeBatch()) {
+                    if (count > 0) {
+                        deleted += count;
+                    }
+                }
+                conn.commit();
+                listener.progress(stage, end, paths.size());
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackException) {
+                // Ignore
+            }
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return deleted;
+    }
+
+    private static String parentOf(String path) {
+        String parent = new File(path).getParent();
+        return parent == null ? path : parent;
+    }
+}
@@ -1,20 +1,54 @@
 package org.photoshelf;
 
+import java.util.concurrent.TimeUnit;
+
 public class CleanupTool {
     public static void cleanUp(String[] args) {
         System.out.println("Starting cleanup...");
 
-        KeywordManager keywordManager = new KeywordManager();
         HybridCache<String, ?> thumbnailCache = new HybridCache<>("thumbnails", 1);
+        // Listing is network-bound on remote mounts, so use more threads than cores
+        int threads = Integer.getInteger("photoshelf.cleanup.threads",
+                Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+        CleanupEngine engine = new CleanupEngine(thumbnailCache, threads);
+
+        // Ctrl-C stops after the current batch, keeping what was already removed
+        Thread cancelHook = new Thread(() -> {
+            engine.cancel();
+            try {
+                engine.awaitFinished(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(cancelHook);
 
-        int cleanedKeywords = keywordManager.cleanup();
-        int cleanedCache = thumbnailCache.cleanup();
+        String[] lastStage = {null};
+        CleanupEngine.Result result = engine.run((stage, completed, total) -> {
+            if (!stage.equals(lastStage[0])) {
+                System.out.println(stage + "...");
+                lastStage[0] = stage;
+            }
+            System.out.print("\r  " + completed + " / " + total);
+            if (completed == total) {
+                System.out.println();
+            }
+        });
 
-        System.out.println("Cleanup complete.");
-        System.out.println("Removed " + cleanedKeywords + " orphaned keyword entries.");
-        System.out.println("Removed " + cleanedCache + " orphaned cache entries.");
+        System.out.println(result.isCancelled() ? "Cleanup cancelled." : "Cleanup complete.");
+        System.out.println("Checked " + result.getDirectories() + " directories"
+                + (result.getUnreadableDirectories() > 0 ? ", skipped " + result.getUnreadableDirectories() + " unreadable." : "."));
+        System.out.println("Removed " + result.getRemovedRows("keywords") + " orphaned keyword entries.");
+        System.out.println("Removed " + result.getRemovedRows("image_hashes") + " orphaned hash entries.");
+        System.out.println("Removed " + result.getRemovedRows("file_fingerprints") + " orphaned fingerprint entries.");
+        System.out.println("Removed " + result.getRemovedCacheEntries() + " orphaned cache entries.");
+        System.out.println("Removed " + result.getRemovedAtlases() + " orphaned thumbnail atlases.");
 
-        keywordManager.shutdown();
         thumbnailCache.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(cancelHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down
+        }
     }
 }
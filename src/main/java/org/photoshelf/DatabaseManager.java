@@ -54,9 +54,26 @@ public class DatabaseManager {
                     "hash VARCHAR(64) NOT NULL, " +
                     "last_modified BIGINT NOT NULL)");
             
+            // Content fingerprint of each hash, so moved and copied files can reuse it
+            stmt.execute("ALTER TABLE image_hashes ADD COLUMN IF NOT EXISTS fingerprint VARCHAR(64)");
+
+            // Blurred stand-in painted until the thumbnail is ready, see ThumbnailPlaceholder
+            stmt.execute("ALTER TABLE image_hashes ADD COLUMN IF NOT EXISTS placeholder VARBINARY(64)");
+
+            // Path to content fingerprint mapping
+            stmt.execute("CREATE TABLE IF NOT EXISTS file_fingerprints (" +
+                    "file_path VARCHAR(1024) PRIMARY KEY, " +
+                    "fingerprint VARCHAR(64) NOT NULL, " +
+                    "file_size BIGINT NOT NULL, " +
+                    "last_modified BIGINT NOT NULL, " +
+                    "file_key VARCHAR(255))");
+
             // Index for faster lookups
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_keywords_path ON keywords(file_path)");
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_hashes_path ON image_hashes(file_path)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_hashes_fingerprint ON image_hashes(fingerprint)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_fingerprints_key ON file_fingerprints(file_key)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_fingerprints_fingerprint ON file_fingerprints(fingerprint)");
         }
     }
 
@@ -0,0 +1,210 @@
+package org.photoshelf;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the images being decoded at the same time within a memory budget.
+ * <p>
+ * Before an image is decoded, its dimensions are read from the header and the size of the
+ * decoded raster is reserved from one budget shared by every decode in the application.
+ * Callers name the resolution they would like and the lowest one they can use. If the
+ * budget cannot cover the preferred resolution right away, the image is decoded with a
+ * coarser source subsampling instead, down to the lowest usable resolution, and only if
+ * even that does not fit does the decode wait for memory to be released. A handful of
+ * very large panoramas decoded in parallel therefore cannot exhaust the heap.
+ * <p>
+ * The budget only covers decodes in flight; the reservation is released as soon as the
+ * reader returns. It defaults to a quarter of the maximum heap and can be set in megabytes
+ * with {@code -Dphotoshelf.decodeBudgetMB}.
+ */
+public class DecodeGovernor {
+    private static DecodeGovernor instance;
+
+    /** Decoded rasters are assumed to be 4 bytes per pixel, as ARGB images are. */
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // One permit is one KiB, so budgets of several gigabytes fit in an int
+    private final Semaphore budget;
+    private final int totalKiB;
+    private final LongAdder reducedDecodes = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+
+    private DecodeGovernor(long budgetBytes) {
+        this.totalKiB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / 1024));
+        this.budget = new Semaphore(totalKiB, true);
+    }
+
+    public static synchronized DecodeGovernor getInstance() {
+        if (instance == null) {
+            long defaultMB = Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024);
+            long budgetMB = Long.getLong("photoshelf.decodeBudgetMB", defaultMB);
+            instance = new DecodeGovernor(Math.max(16, budgetMB) * 1024 * 1024);
+        }
+        return instance;
+    }
+
+    /**
+     * Decodes an image at the highest resolution the budget allows, between the preferred
+     * and the lowest usable one. Subsampling never goes below the lowest usable resolution
+     * unless the image could not fit the whole budget otherwise.
+     *
+     * @param imgFile         The image file.
+     * @param preferredWidth  The width the decoded image should be at least, or
+     *                        {@link Integer#MAX_VALUE} for the full resolution.
+     * @param preferredHeight The height the decoded image should be at least, likewise.
+     * @param minWidth        The lowest width that is still usable.
+     * @param minHeight       The lowest height that is still usable.
+     * @return The decoded image, or null if no reader supports the file.
+     * @throws InterruptedIOException If interrupted while waiting for the budget.
+     */
+    public BufferedImage read(File imgFile, int preferredWidth, int preferredHeight, int minWidth, int minHeight)
+            throws IOException {
+        try (ImageInputStream input = PrefetchedSource.openStream(imgFile)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int preferredFactor = subsamplingFactor(width, height, preferredWidth, preferredHeight);
+                int maxFactor = Math.max(preferredFactor, subsamplingFactor(width, height, minWidth, minHeight));
+                try (Reservation reservation = reserve(width, height, preferredFactor, maxFactor)) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    if (reservation.getFactor() > 1) {
+                        param.setSourceSubsampling(reservation.getFactor(), reservation.getFactor(), 0, 0);
+                    }
+                    return reader.read(0, param);
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reserves the memory to decode an image, choosing the finest subsampling step between
+     * the preferred and the coarsest acceptable one that the budget covers right now. If none
+     * does, waits until the coarsest one is covered.
+     *
+     * @param width           The width of the source image.
+     * @param height          The height of the source image.
+     * @param preferredFactor The subsampling step the caller would like.
+     * @param maxFactor       The coarsest subsampling step the caller accepts.
+     * @return The reservation, to be closed once the image is decoded.
+     * @throws InterruptedIOException If interrupted while waiting.
+     */
+    public Reservation reserve(int width, int height, int preferredFactor, int maxFactor) throws InterruptedIOException {
+        int factor = Math.max(1, preferredFactor);
+        int coarsest = Math.max(factor, maxFactor);
+        // An image too large for the whole budget at any acceptable step would wait forever
+        while (cost(width, height, coarsest) > totalKiB) {
+            coarsest *= 2;
+        }
+        for (; factor < coarsest; factor *= 2) {
+            int cost = cost(width, height, factor);
+            if (cost <= totalKiB && budget.tryAcquire(cost)) {
+                if (factor > preferredFactor) {
+                    reducedDecodes.increment();
+                }
+                return new Reservation(factor, cost);
+            }
+        }
+
+        int cost = cost(width, height, coarsest);
+        if (coarsest > preferredFactor) {
+            reducedDecodes.increment();
+        }
+        if (!budget.tryAcquire(cost)) {
+            waits.increment();
+            try {
+                budget.acquire(cost);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decode memory");
+            }
+        }
+        return new Reservation(coarsest, cost);
+    }
+
+    /**
+     * @return The bytes of the budget not reserved by decodes in flight.
+     */
+    public long getAvailableBytes() {
+        return (long) budget.availablePermits() * 1024;
+    }
+
+    /**
+     * @return The number of decodes done at a lower resolution than preferred for lack of memory.
+     */
+    public long getReducedDecodeCount() {
+        return reducedDecodes.sum();
+    }
+
+    /**
+     * @return The number of decodes that had to wait for memory.
+     */
+    public long getWaitCount() {
+        return waits.sum();
+    }
+
+    /**
+     * @return The largest subsampling step that keeps the decoded image at least as large
+     *         as the bounds in one dimension, at least 1.
+     */
+    static int subsamplingFactor(int width, int height, int minWidth, int minHeight) {
+        double scale = Math.min((double) minWidth / width, (double) minHeight / height);
+        return scale >= 1 ? 1 : Math.max(1, (int) (1 / scale));
+    }
+
+    /**
+     * @return The estimated size in KiB of an image decoded with a subsampling step.
+     */
+    private static int cost(int width, int height, int factor) {
+        long pixels = (long) ((width + factor - 1) / factor) * ((height + factor - 1) / factor);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (pixels * BYTES_PER_PIXEL + 1023) / 1024));
+    }
+
+    /**
+     * Memory reserved for one decode, released when closed.
+     */
+    public class Reservation implements AutoCloseable {
+        private final int factor;
+        private int permits;
+
+        private Reservation(int factor, int permits) {
+            this.factor = factor;
+            this.permits = permits;
+        }
+
+        /**
+         * @return The source subsampling step to decode with.
+         */
+        public int getFactor() {
+            return factor;
+        }
+
+        @Override
+        public void close() {
+            if (permits > 0) {
+                budget.release(permits);
+                permits = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.photoshelf;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one pool that decodes images for the whole application, so loading several folders
+ * in quick succession or hashing in the background never runs more decodes than there are
+ * threads.
+ * <p>
+ * Queued tasks run by {@link Priority}, then in the order they were submitted: thumbnails
+ * on screen first, then thumbnails about to scroll into view, then background work such as
+ * perceptual hashing. Tasks are submitted through a {@link View}, which stands for one
+ * consumer such as a grid; cancelling the view removes its queued tasks and interrupts its
+ * running ones, so an abandoned folder stops taking decode slots.
+ * <p>
+ * The number of threads defaults to the number of processors and can be set with
+ * {@code -Dphotoshelf.decodeThreads}.
+ * <p>
+ * A second, larger scheduler with the same lanes runs the work that mostly waits on the
+ * disk, such as reading source files ahead of their decode (see {@link #getIoInstance()}),
+ * so slow storage does not hold decode threads. Its size defaults to 16 threads and can be
+ * set with {@code -Dphotoshelf.ioThreads}.
+ */
+public class DecodeScheduler {
+    private static DecodeScheduler instance;
+    private static DecodeScheduler ioInstance;
+
+    /**
+     * The lanes of the queue, most urgent first.
+     */
+    public enum Priority {
+        VISIBLE, PREFETCH, BACKGROUND
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private DecodeScheduler(String name, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public static synchronized DecodeScheduler getInstance() {
+        if (instance == null) {
+            int threads = Integer.getInteger("photoshelf.decodeThreads", Runtime.getRuntime().availableProcessors());
+            instance = new DecodeScheduler("decode", Math.max(1, threads));
+        }
+        return instance;
+    }
+
+    /**
+     * @return The scheduler for I/O-bound work.
+     */
+    public static synchronized DecodeScheduler getIoInstance() {
+        if (ioInstance == null) {
+            int threads = Integer.getInteger("photoshelf.ioThreads", 16);
+            ioInstance = new DecodeScheduler("io", Math.max(1, threads));
+        }
+        return ioInstance;
+    }
+
+    /**
+     * @return A new view to submit tasks through.
+     */
+    public View newView() {
+        return new View();
+    }
+
+    /**
+     * @return The maximum number of tasks that run at the same time.
+     */
+    public int getMaxConcurrentDecodes() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return The number of tasks waiting for a thread.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Discards queued tasks and interrupts running ones. Called when the application closes.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The tasks of one consumer, which can be cancelled together.
+     */
+    public class View {
+        private final Set<Task<?>> tasks = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        private View() {
+        }
+
+        /**
+         * Queues a task. If the view is already cancelled, the task is cancelled at once.
+         *
+         * @param priority The lane to queue the task in.
+         * @param callable The work to do.
+         * @return The result of the task.
+         */
+        public <T> Future<T> submit(Priority priority, Callable<T> callable) {
+            Task<T> task = new Task<>(this, priority, sequence.getAndIncrement(), callable);
+            tasks.add(task);
+            // Checked after adding, so a concurrent cancel() either sees the task or is seen here
+            if (cancelled) {
+                task.cancel(false);
+                return task;
+            }
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.cancel(false); // Shutting down
+            }
+            return task;
+        }
+
+        /**
+         * Cancels every task of this view and any submitted later.
+         */
+        public void cancel() {
+            cancelled = true;
+            for (Task<?> task : tasks) {
+                task.cancel(true);
+            }
+            executor.purge();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final View view;
+        private final Priority priority;
+        private final long sequence;
+
+        Task(View view, Priority priority, long sequence, Callable<T> callable) {
+            super(callable);
+            this.view = view;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        protected void done() {
+            view.tasks.remove(this);
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            int order = priority.compareTo(other.priority);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package org.photoshelf;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Extracts the preview images that cameras embed in JPEG files, reading only the header
+ * segments and never decoding the main image.
+ * <p>
+ * Three kinds of embedded JPEG are found: the EXIF thumbnail in IFD1 of the APP1 segment
+ * (usually 160x120), the larger previews of a Multi-Picture Format index in APP2, and a
+ * JFXX thumbnail in APP0. Their dimensions come from their own headers, so only the one
+ * that is picked is decoded. Previews whose aspect ratio differs from the main image, such
+ * as letterboxed 4:3 thumbnails of 3:2 photos, are ignored.
+ */
+public final class EmbeddedThumbnails {
+    private static final int SOI = 0xD8;
+    private static final int SOS = 0xDA;
+    private static final int EOI = 0xD9;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TAG_MP_ENTRY = 0xB002;
+    private static final int MP_TYPE_LARGE_THUMBNAIL_VGA = 0x010001;
+    private static final int MP_TYPE_LARGE_THUMBNAIL_FULL_HD = 0x010002;
+    private static final int MAX_PREVIEW_BYTES = 8 * 1024 * 1024;
+    // Enough for the frame header of a preview that carries its own EXIF segment
+    private static final int PREVIEW_HEADER_BYTES = 128 * 1024;
+    private static final double ASPECT_TOLERANCE = 0.02;
+
+    private EmbeddedThumbnails() {
+    }
+
+    /**
+     * Returns the smallest embedded preview of a JPEG that is at least as large as the
+     * original would be when scaled to fit the bounds.
+     *
+     * @param file      The JPEG file.
+     * @param maxWidth  The width of the bounds.
+     * @param maxHeight The height of the bounds.
+     * @return The decoded preview, or null if the file is not a JPEG or has none large enough.
+     */
+    public static BufferedImage find(File file, int maxWidth, int maxHeight) {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            Header header = readHeader(input);
+            if (header == null || header.previews.isEmpty()) {
+                return null;
+            }
+
+            List<Preview> usable = new ArrayList<>();
+            for (Preview preview : header.previews) {
+                byte[] head = readBytes(input, preview, Math.min(preview.length, PREVIEW_HEADER_BYTES));
+                if (head != null && readDimensions(preview, head) && header.hasAspectOf(preview)
+                        && covers(preview.width, preview.height, maxWidth, maxHeight)) {
+                    usable.add(preview);
+                }
+            }
+            // Only the smallest preview that is large enough is read in full and decoded
+            usable.sort(Comparator.comparingLong(preview -> (long) preview.width * preview.height));
+            for (Preview preview : usable) {
+                byte[] bytes = readBytes(input, preview, preview.length);
+                BufferedImage image = bytes == null ? null : ImageIO.read(new ByteArrayInputStream(bytes));
+                if (image != null) {
+                    return image;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or malformed headers just mean there is no preview to use
+        }
+        return null;
+    }
+
+    /**
+     * @return true if an image of the given size is at least as large as the original
+     *         scaled to fit the bounds, so scaling it down loses nothing.
+     */
+    public static boolean covers(int width, int height, int maxWidth, int maxHeight) {
+        return width > 0 && height > 0 && Math.min((double) maxWidth / width, (double) maxHeight / height) <= 1;
+    }
+
+    // --- Header parsing ---
+
+    private static Header readHeader(RandomAccessFile input) throws IOException {
+        if (input.readUnsignedByte() != 0xFF || input.readUnsignedByte() != SOI) {
+            return null;
+        }
+        Header header = new Header();
+        while (true) {
+            int marker = nextMarker(input);
+            if (marker == SOS || marker == EOI) {
+                return header;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue; // Markers without a length
+            }
+            int length = input.readUnsignedShort() - 2;
+            long start = input.getFilePointer();
+            if (length < 0) {
+                return header;
+            }
+            if (marker == 0xE0 || marker == 0xE1 || marker == 0xE2) {
+                byte[] segment = new byte[length];
+                input.readFully(segment);
+                if (marker == 0xE1 && startsWith(segment, "Exif\0\0")) {
+                    readExif(header, segment, start + 6);
+                } else if (marker == 0xE2 && startsWith(segment, "MPF\0")) {
+                    readMpf(header, segment, start + 4);
+                } else if (marker == 0xE0 && startsWith(segment, "JFXX\0") && length > 6 && segment[5] == 0x10) {
+                    header.previews.add(new Preview(start + 6, length - 6));
+                }
+            } else if (isStartOfFrame(marker) && length >= 5) {
+                input.readUnsignedByte(); // Sample precision
+                header.height = input.readUnsignedShort();
+                header.width = input.readUnsignedShort();
+            }
+            input.seek(start + length);
+        }
+    }
+
+    private static int nextMarker(RandomAccessFile input) throws IOException {
+        int b = input.readUnsignedByte();
+        while (b != 0xFF) {
+            b = input.readUnsignedByte();
+        }
+        while (b == 0xFF) {
+            b = input.readUnsignedByte(); // Fill bytes
+        }
+        return b;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Finds the JPEG thumbnail of IFD1. Offsets in the TIFF structure are relative to its
+     * header, which starts at {@code tiffStart} in the file.
+     */
+    private static void readExif(Header header, byte[] segment, long tiffStart) {
+        ByteBuffer tiff = tiffBuffer(segment, 6);
+        if (tiff == null) {
+            return;
+        }
+        int ifd0 = tiff.getInt(4);
+        int ifd0Entries = tiff.getShort(ifd0) & 0xFFFF;
+        int ifd1 = tiff.getInt(ifd0 + 2 + 12 * ifd0Entries);
+        if (ifd1 <= 0 || ifd1 + 2 > tiff.limit()) {
+            return;
+        }
+        long offset = -1;
+        long length = -1;
+        int entries = tiff.getShort(ifd1) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd1 + 2 + 12 * i;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                length = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+            }
+        }
+        if (offset > 0 && length > 0) {
+            header.previews.add(new Preview(tiffStart + offset, length));
+        }
+    }
+
+    /**
+     * Finds the large thumbnails in a Multi-Picture Format index. Their offsets are
+     * relative to the MP endian marker, which starts at {@code mpStart} in the file.
+     */
+    private static void readMpf(Header header, byte[] segment, long mpStart) {
+        ByteBuffer mp = tiffBuffer(segment, 4);
+        if (mp == null) {
+            return;
+        }
+        int ifd = mp.getInt(4);
+        int entries = mp.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + 12 * i;
+            if ((mp.getShort(entry) & 0xFFFF) != TAG_MP_ENTRY) {
+                continue;
+            }
+            int count = mp.getInt(entry + 4) / 16;
+            int values = mp.getInt(entry + 8);
+            for (int j = 0; j < count; j++) {
+                int value = values + 16 * j;
+                int type = mp.getInt(value) & 0xFFFFFF;
+                long size = mp.getInt(value + 4) & 0xFFFFFFFFL;
+                long offset = mp.getInt(value + 8) & 0xFFFFFFFFL;
+                if (offset > 0 && (type == MP_TYPE_LARGE_THUMBNAIL_VGA || type == MP_TYPE_LARGE_THUMBNAIL_FULL_HD)) {
+                    header.previews.add(new Preview(mpStart + offset, size));
+                }
+            }
+        }
+    }
+
+    /**
+     * Wraps a TIFF structure, {@code II} or {@code MM} followed by the magic number 42, in
+     * a buffer of its byte order.
+     */
+    private static ByteBuffer tiffBuffer(byte[] segment, int start) {
+        if (segment.length < start + 8) {
+            return null;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, start, segment.length - start).slice();
+        if (segment[start] == 'I' && segment[start + 1] == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (segment[start] != 'M' || segment[start + 1] != 'M') {
+            return null;
+        }
+        return tiff.getShort(2) == 42 ? tiff : null;
+    }
+
+    private static byte[] readBytes(RandomAccessFile input, Preview preview, long count) throws IOException {
+        if (preview.length < 4 || preview.length > MAX_PREVIEW_BYTES || preview.offset + preview.length > input.length()) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) count];
+        input.seek(preview.offset);
+        input.readFully(bytes);
+        return (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == SOI ? bytes : null;
+    }
+
+    /**
+     * Reads the dimensions of an embedded JPEG from the start of its bytes.
+     */
+    private static boolean readDimensions(Preview preview, byte[] bytes) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                preview.width = reader.getWidth(0);
+                preview.height = reader.getHeight(0);
+                return true;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] segment, String prefix) {
+        byte[] expected = prefix.getBytes(StandardCharsets.US_ASCII);
+        if (segment.length < expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (segment[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Header {
+        final List<Preview> previews = new ArrayList<>();
+        int width;
+        int height;
+
+        boolean hasAspectOf(Preview preview) {
+            if (width <= 0 || height <= 0) {
+                return true; // Main image size unknown
+            }
+            double main = (double) width / height;
+            double embedded = (double) preview.width / preview.height;
+            return Math.abs(main - embedded) / main <= ASPECT_TOLERANCE;
+        }
+    }
+
+    private static final class Preview {
+        final long offset;
+        final long length;
+        int width;
+        int height;
+
+        Preview(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
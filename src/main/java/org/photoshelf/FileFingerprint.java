@@ -0,0 +1,57 @@
+package org.photoshelf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes a content identity for a file from its size and a CRC32C over samples of its
+ * bytes: the start, the middle and the end. Files up to three samples long are hashed in
+ * full. Byte-identical files always get the same fingerprint wherever they are stored.
+ */
+public final class FileFingerprint {
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private FileFingerprint() {
+    }
+
+    /**
+     * @param path The file to fingerprint.
+     * @param size The size of the file in bytes.
+     * @return The fingerprint, formatted as {@code <size>-<crc>} in hex.
+     * @throws IOException If the file cannot be read.
+     */
+    public static String compute(Path path, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+            if (size <= 3L * SAMPLE_SIZE) {
+                update(crc, channel, buffer, 0, size);
+            } else {
+                update(crc, channel, buffer, 0, SAMPLE_SIZE);
+                update(crc, channel, buffer, (size - SAMPLE_SIZE) / 2, SAMPLE_SIZE);
+                update(crc, channel, buffer, size - SAMPLE_SIZE, SAMPLE_SIZE);
+            }
+        }
+        return Long.toHexString(size) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    private static void update(CRC32C crc, FileChannel channel, ByteBuffer buffer, long position, long length)
+            throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break; // The file shrank while being read
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+    }
+}
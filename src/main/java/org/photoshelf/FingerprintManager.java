@@ -0,0 +1,189 @@
+package org.photoshelf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps file paths to content fingerprints (see {@link FileFingerprint}), so derived data
+ * such as thumbnails and perceptual hashes can be keyed by content instead of by path.
+ * <p>
+ * The mapping is stored in the {@code file_fingerprints} table together with the size,
+ * last-modified time and file key (the inode, where the file system has one) seen when the
+ * fingerprint was computed. A path whose size and time are unchanged reuses its
+ * fingerprint. A path seen for the first time reuses the fingerprint of a row with the same
+ * file key, size and time, which is what a file moved or renamed on the same volume looks
+ * like. Only otherwise are the file's bytes sampled.
+ */
+public class FingerprintManager {
+    private static FingerprintManager instance;
+
+    private final DatabaseManager dbManager;
+    private final ConcurrentHashMap<String, Mapping> mappings = new ConcurrentHashMap<>();
+
+    private FingerprintManager() {
+        this.dbManager = DatabaseManager.getInstance();
+    }
+
+    public static synchronized FingerprintManager getInstance() {
+        if (instance == null) {
+            instance = new FingerprintManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the fingerprint of a file, computing and recording it if needed.
+     *
+     * @param file The file.
+     * @return The content fingerprint.
+     * @throws IOException If the file cannot be read.
+     */
+    public String getFingerprint(File file) throws IOException {
+        Path path = file.toPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String filePath = file.getAbsolutePath();
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String fileKey = attributes.fileKey() == null ? null : attributes.fileKey().toString();
+
+        Mapping mapping = mappings.get(filePath);
+        if (mapping != null && mapping.matches(size, lastModified)) {
+            return mapping.fingerprint;
+        }
+
+        String fingerprint = findByPath(filePath, size, lastModified);
+        boolean known = fingerprint != null;
+        if (fingerprint == null && fileKey != null) {
+            fingerprint = findByFileKey(fileKey, size, lastModified);
+        }
+        if (fingerprint == null) {
+            fingerprint = FileFingerprint.compute(path, size);
+        }
+        if (!known) {
+            store(filePath, fingerprint, size, lastModified, fileKey);
+        }
+        mappings.put(filePath, new Mapping(fingerprint, size, lastModified));
+        return fingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of a file if it was looked up in this session and the file
+     * is unchanged, without touching the file or the database.
+     *
+     * @param file         The file.
+     * @param size         The current size of the file.
+     * @param lastModified The current modification time of the file.
+     * @return The content fingerprint, or null if it is not known.
+     */
+    public String getKnownFingerprint(File file, long size, long lastModified) {
+        Mapping mapping = mappings.get(file.getAbsolutePath());
+        return mapping != null && mapping.matches(size, lastModified) ? mapping.fingerprint : null;
+    }
+
+    /**
+     * @return Every fingerprint that is mapped from at least one path.
+     */
+    public Set<String> getAllFingerprints() {
+        Set<String> fingerprints = new HashSet<>();
+        Connection conn = dbManager.getConnection();
+        if (conn == null) return fingerprints;
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT DISTINCT fingerprint FROM file_fingerprints");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                fingerprints.add(rs.getString("fingerprint"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Drops the in-memory mappings of paths whose rows were deleted from the table.
+     *
+     * @param filePaths The absolute paths.
+     */
+    public void forget(Collection<String> filePaths) {
+        for (String filePath : filePaths) {
+            mappings.remove(filePath);
+        }
+    }
+
+    private String findByPath(String filePath, long size, long lastModified) {
+        Connection conn = dbManager.getConnection();
+        if (conn == null) return null;
+        String sql = "SELECT fingerprint FROM file_fingerprints WHERE file_path = ? AND file_size = ? AND last_modified = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, filePath);
+            pstmt.setLong(2, size);
+            pstmt.setLong(3, lastModified);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString("fingerprint") : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private String findByFileKey(String fileKey, long size, long lastModified) {
+        Connection conn = dbManager.getConnection();
+        if (conn == null) return null;
+        String sql = "SELECT fingerprint FROM file_fingerprints WHERE file_key = ? AND file_size = ? AND last_modified = ? LIMIT 1";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, fileKey);
+            pstmt.setLong(2, size);
+            pstmt.setLong(3, lastModified);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString("fingerprint") : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void store(String filePath, String fingerprint, long size, long lastModified, String fileKey) {
+        Connection conn = dbManager.getConnection();
+        if (conn == null) return;
+        String sql = "MERGE INTO file_fingerprints (file_path, fingerprint, file_size, last_modified, file_key) "
+                + "KEY(file_path) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, filePath);
+            pstmt.setString(2, fingerprint);
+            pstmt.setLong(3, size);
+            pstmt.setLong(4, lastModified);
+            pstmt.setString(5, fileKey);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class Mapping {
+        final String fingerprint;
+        final long size;
+        final long lastModified;
+
+        Mapping(String fingerprint, long size, long lastModified) {
+            this.fingerprint = fingerprint;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean matches(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.photoshelf;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads, and optionally writes, the thumbnail cache shared by desktop applications that
+ * follow the freedesktop.org Thumbnail Managing Standard, usually {@code ~/.cache/thumbnails}.
+ * <p>
+ * A thumbnail is a PNG named after the MD5 of the original's {@code file://} URI, in a
+ * directory per size: {@code normal} (128), {@code large} (256), {@code x-large} (512) and
+ * {@code xx-large} (1024). It is only valid if its {@code Thumb::URI} text chunk names the
+ * original and its {@code Thumb::MTime} equals the original's modification time in seconds.
+ * <p>
+ * Write-back is off unless {@code -Dphotoshelf.freedesktopThumbnails.writeBack=true}. When
+ * on, thumbnails PhotoShelf decodes itself are stored in the same format on a background
+ * thread, written to a temporary file and renamed into place as the standard requires.
+ */
+public class FreedesktopThumbnails {
+    private static final int[] SIZES = {128, 256, 512, 1024};
+    private static final String[] SIZE_DIRECTORIES = {"normal", "large", "x-large", "xx-large"};
+    private static final String PNG_METADATA_FORMAT = "javax_imageio_png_1.0";
+    private static final int MAX_PENDING_WRITES = 256;
+    private static final String URI_SAFE_CHARACTERS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-._~!$&'()*+,;=:@/";
+
+    private final Path root;
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * @param root      The thumbnail cache directory, containing one directory per size.
+     * @param writeBack Whether to store thumbnails that were decoded locally.
+     */
+    public FreedesktopThumbnails(Path root, boolean writeBack) {
+        this.root = root;
+        if (writeBack) {
+            // Thumbnails for other applications are a courtesy; when the writer falls behind, new ones are dropped
+            this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING_WRITES),
+                    r -> {
+                        Thread thread = new Thread(r, "freedesktop-thumbnail-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Locates the shared cache from {@code $XDG_CACHE_HOME}, falling back to {@code ~/.cache}.
+     *
+     * @return The shared cache, or null if it is turned off with
+     *         {@code -Dphotoshelf.freedesktopThumbnails=false}.
+     */
+    public static FreedesktopThumbnails fromEnvironment() {
+        if (!Boolean.parseBoolean(System.getProperty("photoshelf.freedesktopThumbnails", "true"))) {
+            return null;
+        }
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = cacheHome == null || cacheHome.isEmpty()
+                ? Path.of(System.getProperty("user.home"), ".cache")
+                : Path.of(cacheHome);
+        boolean writeBack = Boolean.parseBoolean(System.getProperty("photoshelf.freedesktopThumbnails.writeBack", "false"));
+        return new FreedesktopThumbnails(base.resolve("thumbnails"), writeBack);
+    }
+
+    /**
+     * Returns a valid shared thumbnail of a file that is at least the given size, trying
+     * the smallest suitable size first.
+     *
+     * @param file    The original file.
+     * @param minSize The smallest acceptable thumbnail size.
+     * @return The thumbnail, or null if there is no valid one.
+     */
+    public BufferedImage find(File file, int minSize) {
+        String uri = toUri(file);
+        String name = null;
+        for (int i = 0; i < SIZES.length; i++) {
+            if (SIZES[i] < minSize) {
+                continue;
+            }
+            if (name == null) {
+                name = md5(uri) + ".png";
+            }
+            Path thumbnail = root.resolve(SIZE_DIRECTORIES[i]).resolve(name);
+            if (!Files.isRegularFile(thumbnail)) {
+                continue;
+            }
+            try {
+                BufferedImage image = readIfValid(thumbnail, uri, file.lastModified() / 1000);
+                if (image != null) {
+                    return image;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Skipping unreadable shared thumbnail " + thumbnail + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queues a locally decoded thumbnail to be stored in the shared cache, if write-back is
+     * on and the size is one the standard defines.
+     *
+     * @param file  The original file.
+     * @param image The thumbnail, no larger than the size in either dimension.
+     * @param size  The thumbnail size.
+     */
+    public void store(File file, BufferedImage image, int size) {
+        if (writer == null) {
+            return;
+        }
+        for (int i = 0; i < SIZES.length; i++) {
+            if (SIZES[i] == size) {
+                String directory = SIZE_DIRECTORIES[i];
+                writer.execute(() -> write(file, image, directory));
+                return;
+            }
+        }
+    }
+
+    // --- Private Helper Methods ---
+
+    private BufferedImage readIfValid(Path thumbnail, String uri, long modifiedSeconds) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(thumbnail.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                Map<String, String> text = readText(reader.getImageMetadata(0));
+                String mtime = text.get("Thumb::MTime");
+                if (!uri.equals(text.get("Thumb::URI")) || mtime == null
+                        || (long) Double.parseDouble(mtime.trim()) != modifiedSeconds) {
+                    return null; // Stale, or made for another file with a colliding name
+                }
+                return reader.read(0);
+            } catch (NumberFormatException e) {
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Map<String, String> readText(IIOMetadata metadata) {
+        Map<String, String> text = new HashMap<>();
+        if (metadata == null || !Set.of(metadata.getMetadataFormatNames()).contains(PNG_METADATA_FORMAT)) {
+            return text;
+        }
+        Node tree = metadata.getAsTree(PNG_METADATA_FORMAT);
+        for (Node chunk = tree.getFirstChild(); chunk != null; chunk = chunk.getNextSibling()) {
+            String valueAttribute = switch (chunk.getNodeName()) {
+                case "tEXt" -> "value";
+                case "iTXt" -> "text";
+                default -> null;
+            };
+            if (valueAttribute == null) {
+                continue;
+            }
+            for (Node entry = chunk.getFirstChild(); entry != null; entry = entry.getNextSibling()) {
+                Node keyword = entry.getAttributes().getNamedItem("keyword");
+                Node value = entry.getAttributes().getNamedItem(valueAttribute);
+                if (keyword != null && value != null) {
+                    text.put(keyword.getNodeValue(), value.getNodeValue());
+                }
+            }
+        }
+        return text;
+    }
+
+    private void write(File file, BufferedImage image, String sizeDirectory) {
+        Path directory = root.resolve(sizeDirectory);
+        String uri = toUri(file);
+        Path target = directory.resolve(md5(uri) + ".png");
+        Path temp = null;
+        try {
+            createPrivateDirectories(directory);
+            temp = Files.createTempFile(directory, "photoshelf-", ".png.tmp");
+            ImageWriter pngWriter = ImageIO.getImageWritersByFormatName("png").next();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(temp.toFile())) {
+                pngWriter.setOutput(output);
+                ImageWriteParam param = pngWriter.getDefaultWriteParam();
+                IIOMetadata metadata = pngWriter.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+                IIOMetadataNode text = new IIOMetadataNode("tEXt");
+                addText(text, "Thumb::URI", uri);
+                addText(text, "Thumb::MTime", Long.toString(file.lastModified() / 1000));
+                addText(text, "Thumb::Size", Long.toString(file.length()));
+                addText(text, "Software", "PhotoShelf");
+                IIOMetadataNode tree = new IIOMetadataNode(PNG_METADATA_FORMAT);
+                tree.appendChild(text);
+                metadata.mergeTree(PNG_METADATA_FORMAT, tree);
+                pngWriter.write(null, new IIOImage(image, null, metadata), param);
+            } finally {
+                pngWriter.dispose();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to store shared thumbnail for " + file.getName() + ": " + e.getMessage());
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException deleteException) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static void addText(IIOMetadataNode chunk, String keyword, String value) {
+        IIOMetadataNode entry = new IIOMetadataNode("tEXtEntry");
+        entry.setAttribute("keyword", keyword);
+        entry.setAttribute("value", value);
+        chunk.appendChild(entry);
+    }
+
+    /**
+     * The standard asks for the thumbnail directories to be readable by their owner only.
+     */
+    private static void createPrivateDirectories(Path directory) throws IOException {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try {
+            Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+
+    /**
+     * Builds the {@code file://} URI of a file the way desktop environments do: the
+     * absolute path's UTF-8 bytes, percent-encoding all but unreserved characters and the
+     * sub-delimiters, {@code :}, {@code @} and {@code /}.
+     */
+    static String toUri(File file) {
+        byte[] path = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        StringBuilder uri = new StringBuilder("file://");
+        for (byte b : path) {
+            int c = b & 0xFF;
+            if (URI_SAFE_CHARACTERS.indexOf(c) >= 0) {
+                uri.append((char) c);
+            } else {
+                uri.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return uri.toString();
+    }
+
+    private static String md5(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(32);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
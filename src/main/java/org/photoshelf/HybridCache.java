@@ -1,27 +1,90 @@
 package org.photoshelf;
 
+import org.photoshelf.cache.CacheMetrics;
+import org.photoshelf.cache.CacheMonitor;
+import org.photoshelf.cache.CacheStats;
+import org.photoshelf.cache.EntryHeader;
+import org.photoshelf.cache.EntryMetadata;
+import org.photoshelf.cache.OffHeapStore;
+import org.photoshelf.cache.SegmentStore;
+import org.photoshelf.cache.SerializingCodec;
+import org.photoshelf.cache.ValueCodec;
+import org.photoshelf.cache.WTinyLfuCache;
+import org.photoshelf.cache.Weigher;
+import org.photoshelf.cache.WriteBehindQueue;
+import org.photoshelf.cache.WriteBehindQueue.PendingWrite;
+
 import java.io.*;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 /**
  * A generic, two-tier hybrid cache that combines a fast, size-limited in-memory
- * (LRU) cache with a persistent on-disk cache.
+ * cache with a persistent on-disk cache.
+ * <p>
+ * The memory tier is bounded by the total weight of its entries (for thumbnails, the
+ * estimated raster bytes) and evicts with the W-TinyLFU policy; see {@link WTinyLfuCache}.
+ * Optionally, entries evicted from it are encoded and kept in an off-heap tier of direct
+ * memory slabs (see {@link OffHeapStore}), where a hit costs a decode instead of a disk read.
+ * The disk tier appends values to large segment files; see {@link SegmentStore}. Values are
+ * converted to bytes by a {@link ValueCodec}, Java serialization unless another is given.
+ * Disk writes go through a bounded, coalescing {@link WriteBehindQueue}.
+ * <p>
+ * Hits per tier, evictions and disk latencies are counted in {@link CacheMetrics}; see
+ * {@link #stats()}. Each cache is also published over JMX as a {@link CacheMonitor}.
+ * <p>
+ * {@link #getOrLoad} and {@link #getOrLoadAsync} compute missing values with a
+ * {@link Loader}, running at most one load per key at a time: callers that miss while a
+ * load is in flight wait for it and share its result.
  *
  * @param <K> The type of the keys.
  * @param <V> The type of the values, which must be Serializable.
  */
 public class HybridCache<K, V extends Serializable> {
 
-    private final Map<K, V> memoryCache;
+    private static final int MAX_PENDING_WRITES = 4096;
+    private static final int WRITE_BATCH_SIZE = 64;
+    private static final int MAX_PENDING_OFF_HEAP_WRITES = 256;
+
+    /**
+     * Computes a value that is missing from the cache.
+     */
+    @FunctionalInterface
+    public interface Loader<K, V> {
+        /**
+         * @param key The key that missed.
+         * @return The value, or null if there is none to cache.
+         * @throws IOException If the value cannot be computed.
+         */
+        V load(K key) throws IOException;
+    }
+
+    private final WTinyLfuCache<K, V> memoryCache;
     private final Path diskCacheDir;
-    private final ExecutorService diskWriterService = Executors.newSingleThreadExecutor();
+    private final SegmentStore diskStore;
+    private final ValueCodec<V> codec;
+    private final WriteBehindQueue<K, V> writeQueue;
+    private final OffHeapStore<K> offHeapStore;
+    private final ThreadPoolExecutor offHeapWriter;
+    // Bumped by remove and clear, so evictions encoded before them are not stored after them
+    private final AtomicLong removals = new AtomicLong();
+    private final String cacheName;
+    private final CacheMetrics metrics = new CacheMetrics();
+    private final CacheMonitor monitor = new CacheMonitor(this::stats);
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
 
     /**
      * Creates a new HybridCache.
@@ -30,24 +93,90 @@ public class HybridCache<K, V extends Serializable> {
      * @param maxMemoryEntries The maximum number of entries to keep in the in-memory cache.
      */
     public HybridCache(String cacheName, int maxMemoryEntries) {
-        // Use ConcurrentHashMap for thread-safe memory access
-        this.memoryCache = new ConcurrentHashMap<>(maxMemoryEntries);
+        this(cacheName, maxMemoryEntries, Weigher.singleton());
+    }
+
+    /**
+     * Creates a new HybridCache whose memory tier is bounded by entry weight.
+     *
+     * @param cacheName      A unique name for the cache, used to create the disk directory.
+     * @param maxMemoryBytes The maximum total weight of the in-memory cache, usually in bytes.
+     * @param weigher        Estimates the weight of each entry.
+     */
+    public HybridCache(String cacheName, long maxMemoryBytes, Weigher<? super K, ? super V> weigher) {
+        this(cacheName, maxMemoryBytes, weigher, new SerializingCodec<>());
+    }
+
+    /**
+     * Creates a new HybridCache whose memory tier is bounded by entry weight and whose
+     * disk tier stores values in the format of the given codec.
+     *
+     * @param cacheName      A unique name for the cache, used to create the disk directory.
+     * @param maxMemoryBytes The maximum total weight of the in-memory cache, usually in bytes.
+     * @param weigher        Estimates the weight of each entry.
+     * @param codec          Converts values to and from their on-disk bytes.
+     */
+    public HybridCache(String cacheName, long maxMemoryBytes, Weigher<? super K, ? super V> weigher, ValueCodec<V> codec) {
+        this(cacheName, maxMemoryBytes, weigher, codec, 0);
+    }
+
+    /**
+     * Creates a new HybridCache with an off-heap tier between the memory and disk tiers.
+     *
+     * @param cacheName      A unique name for the cache, used to create the disk directory.
+     * @param maxMemoryBytes The maximum total weight of the in-memory cache, usually in bytes.
+     * @param weigher        Estimates the weight of each entry.
+     * @param codec          Converts values to and from their off-heap and on-disk bytes.
+     * @param offHeapBytes   The direct memory for encoded entries evicted from the memory tier, or 0 for none.
+     */
+    public HybridCache(String cacheName, long maxMemoryBytes, Weigher<? super K, ? super V> weigher, ValueCodec<V> codec,
+                       long offHeapBytes) {
+        this.cacheName = cacheName;
+        this.codec = codec;
+        if (offHeapBytes > 0) {
+            this.offHeapStore = new OffHeapStore<>(offHeapBytes, OffHeapStore.DEFAULT_SLAB_SIZE);
+            // Evictions arrive in bursts; when the writer falls behind, the oldest are simply not kept
+            this.offHeapWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING_OFF_HEAP_WRITES), r -> {
+                        Thread thread = new Thread(r, "off-heap-writer-" + cacheName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        } else {
+            this.offHeapStore = null;
+            this.offHeapWriter = null;
+        }
+        this.memoryCache = new WTinyLfuCache<>(maxMemoryBytes, weigher, this::onEvicted);
 
         // Define the on-disk cache directory
         this.diskCacheDir = Path.of(System.getProperty("user.home"), ".photoshelf_cache", cacheName);
 
-        // Create the directory if it doesn't exist
+        // Open the segment store, rebuilding its index from the segment footers
+        SegmentStore store = null;
         try {
-            Files.createDirectories(diskCacheDir);
+            store = new SegmentStore(diskCacheDir, SegmentStore.DEFAULT_SEGMENT_SIZE);
         } catch (IOException e) {
-            System.err.println("Failed to create disk cache directory: " + diskCacheDir);
+            System.err.println("Failed to open disk cache: " + diskCacheDir + ". Disk caching is disabled.");
             e.printStackTrace();
         }
+        this.diskStore = store;
+
+        // Pending values are also weighed, so a burst of puts cannot pin more than a quarter of the memory budget
+        this.writeQueue = new WriteBehindQueue<>(cacheName, MAX_PENDING_WRITES, maxMemoryBytes / 4, WRITE_BATCH_SIZE,
+                weigher, this::writeBatch);
+
+        monitor.register(cacheName);
+
+        if (diskStore != null) {
+            Thread legacyCleaner = new Thread(this::deleteLegacyCacheFiles, "legacy-cache-cleaner-" + cacheName);
+            legacyCleaner.setDaemon(true);
+            legacyCleaner.start();
+        }
     }
 
     /**
      * Retrieves an item from the cache.
-     * It first checks the in-memory cache, then falls back to the on-disk cache.
+     * It first checks the in-memory cache, then the off-heap tier, then falls back to the on-disk cache.
      *
      * @param key The key of the item to retrieve.
      * @return The cached item, or null if it is not in either cache.
@@ -56,19 +185,165 @@ public class HybridCache<K, V extends Serializable> {
         // 1. Check in-memory cache first (fastest)
         V value = memoryCache.get(key);
         if (value != null) {
+            metrics.recordMemoryHit();
             return value; // Hot cache hit
         }
 
-        // 2. Fallback to on-disk cache
+        // 2. A write that has not reached the disk yet
+        PendingWrite<K, V> pending = writeQueue.getPending(key);
+        if (pending != null) {
+            if (pending.isDelete()) {
+                metrics.recordMiss(0);
+                return null; // About to be deleted
+            }
+            metrics.recordPendingHit();
+            return pending.getValue();
+        }
+
+        // 3. Encoded in the off-heap tier
+        long start = System.nanoTime();
+        value = readFromOffHeap(key);
+        if (value != null) {
+            metrics.recordOffHeapHit(System.nanoTime() - start);
+            memoryCache.put(key, value);
+            return value;
+        }
+
+        // 4. Fallback to on-disk cache
+        start = System.nanoTime();
         value = readFromDisk(key);
         if (value != null) {
+            metrics.recordDiskHit(System.nanoTime() - start);
             memoryCache.put(key, value); // Warm cache hit, promote to memory
             return value;
         }
 
+        metrics.recordMiss(diskStore == null ? 0 : System.nanoTime() - start);
         return null; // Cache miss
     }
 
+    /**
+     * Retrieves an item from the in-memory cache only, without touching the disk.
+     *
+     * @param key The key of the item to retrieve.
+     * @return The cached item, or null if it is not in memory.
+     */
+    public V peek(K key) {
+        V value = memoryCache.get(key);
+        if (value != null) {
+            metrics.recordMemoryHit();
+        }
+        return value;
+    }
+
+    /**
+     * Retrieves an item, loading and caching it on a miss. If another caller is already
+     * loading the key, waits for that load instead of starting a second one.
+     * <p>
+     * Interrupting a waiting caller abandons its wait with an {@link InterruptedIOException}
+     * but leaves the load running for the others. If the loading caller is interrupted, a
+     * waiting caller takes over and loads the value itself.
+     *
+     * @param key    The key of the item.
+     * @param source The file the value is derived from, or null.
+     * @param loader Computes the value on a miss.
+     * @return The cached or loaded item, or null if the loader returned null.
+     * @throws IOException If the loader failed.
+     */
+    public V getOrLoad(K key, File source, Loader<K, V> loader) throws IOException {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return load(key, source, loader);
+    }
+
+    /**
+     * Loads and caches an item that the caller has already looked up and found missing,
+     * sharing the load with concurrent callers as {@link #getOrLoad} does.
+     *
+     * @param key    The key of the item.
+     * @param source The file the value is derived from, or null.
+     * @param loader Computes the value.
+     * @return The loaded item, or null if the loader returned null.
+     * @throws IOException If the loader failed.
+     */
+    public V load(K key, File source, Loader<K, V> loader) throws IOException {
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = join(key, flight);
+            if (existing == flight) {
+                runLoad(key, source, loader, flight);
+                if (flight.future.isCancelled()) {
+                    throw new InterruptedIOException("Interrupted while loading " + key);
+                }
+            } else {
+                flight = existing;
+            }
+            try {
+                return flight.future.get();
+            } catch (CancellationException e) {
+                // The loading caller gave up; try again, most likely as the loader
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                release(key, flight);
+                throw new InterruptedIOException("Interrupted while waiting for " + key);
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Retrieves an item, loading and caching it on the executor on a miss. Concurrent
+     * callers for the same key, synchronous or not, share one load.
+     * <p>
+     * Each caller gets its own future. Cancelling it only detaches that caller; the load
+     * itself is cancelled, and its thread interrupted, once every caller waiting for it
+     * has cancelled.
+     *
+     * @param key      The key of the item.
+     * @param source   The file the value is derived from, or null.
+     * @param loader   Computes the value on a miss.
+     * @param executor Runs the load.
+     * @return A future for the cached or loaded item.
+     */
+    public CompletableFuture<V> getOrLoadAsync(K key, File source, Loader<K, V> loader, Executor executor) {
+        // Only the memory tier is checked here, so the caller never blocks on the disk
+        V value = memoryCache.get(key);
+        if (value != null) {
+            metrics.recordMemoryHit();
+            return CompletableFuture.completedFuture(value);
+        }
+        Flight<V> flight = new Flight<>();
+        Flight<V> existing = join(key, flight);
+        if (existing == flight) {
+            try {
+                executor.execute(() -> {
+                    if (flight.future.isDone()) {
+                        return; // Cancelled while queued
+                    }
+                    V cached = get(key);
+                    if (cached != null) {
+                        complete(key, flight, cached);
+                    } else {
+                        runLoad(key, source, loader, flight);
+                    }
+                });
+            } catch (RuntimeException e) {
+                inFlight.remove(key, flight);
+                flight.future.completeExceptionally(e);
+            }
+        }
+        CompletableFuture<V> view = existing.future.copy();
+        view.whenComplete((result, error) -> {
+            if (view.isCancelled()) {
+                release(key, existing);
+            }
+        });
+        return view;
+    }
+
     /**
      * Adds an item to the cache. The item is stored in the in-memory cache and
      * asynchronously written to the on-disk cache.
@@ -77,13 +352,62 @@ public class HybridCache<K, V extends Serializable> {
      * @param value The value to cache.
      */
     public void put(K key, V value) {
+        put(key, value, null);
+    }
+
+    /**
+     * Adds an item derived from a file. The file's path and last-modified time are stored
+     * with the disk entry so that {@link CleanupEngine} can tell when the entry is orphaned.
+     *
+     * @param key    The key of the item.
+     * @param value  The value to cache.
+     * @param source The file the value was derived from, or null.
+     */
+    public void put(K key, V value, File source) {
+        put(key, value, source, false);
+    }
+
+    /**
+     * Adds an item derived from a file.
+     * <p>
+     * The disk write is queued. If the queue is full, a regular put waits briefly for the
+     * writer to catch up, while a speculative put (for example a thumbnail size that is
+     * likely to be superseded) skips the disk and is only kept in memory.
+     *
+     * @param key         The key of the item.
+     * @param value       The value to cache.
+     * @param source      The file the value was derived from, or null.
+     * @param speculative Whether the disk write may be dropped rather than wait.
+     */
+    public void put(K key, V value, File source, boolean speculative) {
         if (key == null || value == null) return;
+        metrics.recordPut();
 
         // Add to memory for immediate access
         memoryCache.put(key, value);
+        if (diskStore == null) return;
+
+        String sourcePath = source == null ? null : source.getAbsolutePath();
+        long sourceModified = source == null ? 0 : source.lastModified();
+
+        // Write to disk in the background to avoid blocking
+        writeQueue.put(key, value, sourcePath, sourceModified, speculative);
+    }
 
-        // Asynchronously write to disk to avoid blocking
-        diskWriterService.submit(() -> writeToDisk(key, value));
+    /**
+     * Writes an item to the on-disk cache only, for values that may be needed later but
+     * should not take memory now.
+     *
+     * @param key         The key of the item.
+     * @param value       The value to cache.
+     * @param source      The file the value was derived from, or null.
+     * @param speculative Whether the disk write may be dropped rather than wait.
+     */
+    public void putToDisk(K key, V value, File source, boolean speculative) {
+        if (key == null || value == null || diskStore == null) return;
+        String sourcePath = source == null ? null : source.getAbsolutePath();
+        long sourceModified = source == null ? 0 : source.lastModified();
+        writeQueue.put(key, value, sourcePath, sourceModified, speculative);
     }
 
     /**
@@ -92,106 +416,354 @@ public class HybridCache<K, V extends Serializable> {
      * @param key The key of the item to remove.
      */
     public void remove(K key) {
+        removals.incrementAndGet();
         memoryCache.remove(key);
-        diskWriterService.submit(() -> {
-            try {
-                Files.deleteIfExists(getFileForKey(key));
-            } catch (IOException e) {
-                // Log error but don't crash
-                System.err.println("Error deleting file for key: " + key);
-                e.printStackTrace();
-            }
-        });
+        if (offHeapStore != null) {
+            offHeapStore.remove(key);
+        }
+        if (diskStore == null) return;
+        // Queued behind any pending write of the key, replacing it
+        writeQueue.delete(key);
     }
 
     /**
      * Clears both the in-memory and on-disk caches completely.
      */
     public void clear() {
+        removals.incrementAndGet();
         memoryCache.clear();
-        diskWriterService.submit(() -> {
-            try (var paths = Files.walk(diskCacheDir)) {
-                paths.filter(Files::isRegularFile).forEach(file -> {
-                    try {
-                        Files.delete(file);
-                    } catch (IOException e) {
-                        System.err.println("Failed to delete cache file: " + file);
-                    }
-                });
-            } catch (IOException e) {
-                System.err.println("Error clearing disk cache: " + diskCacheDir);
-                e.printStackTrace();
-            }
-        });
+        if (offHeapStore != null) {
+            offHeapStore.clear();
+        }
+        writeQueue.discardPending();
+        if (diskStore == null) return;
+        try {
+            diskStore.clear();
+        } catch (IOException e) {
+            System.err.println("Error clearing disk cache: " + diskCacheDir);
+            e.printStackTrace();
+        }
     }
 
-    public int cleanup() {
-        AtomicInteger removedCount = new AtomicInteger(0);
-        try (Stream<Path> files = Files.walk(diskCacheDir)) {
-            files.filter(Files::isRegularFile).forEach(path -> {
-                String key = path.getFileName().toString().replace(".cache", "").replaceAll("_", "/");
-                // This is a heuristic. A better way would be to store the original path in the cache file.
-                // For now, we assume the key is derived from the file path.
-                if (!Files.exists(Path.of(key.split("_[0-9]+x[0-9]+")[0]))) {
-                    try {
-                        Files.delete(path);
-                        removedCount.incrementAndGet();
-                    } catch (IOException e) {
-                        System.err.println("Failed to delete orphaned cache file: " + path);
-                    }
-                }
-            });
+    /**
+     * @return The metadata of every entry in the on-disk tier.
+     */
+    public List<EntryMetadata> diskEntries() {
+        return diskStore == null ? List.of() : diskStore.entries();
+    }
+
+    /**
+     * Deletes entries from the on-disk tier in one batch. The space is reclaimed by the
+     * store's background compaction.
+     *
+     * @param keys The keys to delete.
+     * @return The number of entries deleted.
+     */
+    public int removeDiskEntries(Collection<String> keys) {
+        if (diskStore == null || keys.isEmpty()) return 0;
+        SegmentStore.Batch batch = new SegmentStore.Batch();
+        for (String key : keys) {
+            if (diskStore.contains(key)) {
+                batch.delete(key);
+            }
+        }
+        try {
+            diskStore.write(batch);
+            return batch.size();
         } catch (IOException e) {
-            System.err.println("Error during cache cleanup: " + e.getMessage());
+            System.err.println("Failed to delete orphaned cache entries: " + e.getMessage());
+            return 0;
         }
-        return removedCount.get();
     }
 
+    /**
+     * Bounds the on-disk tier. When its files outgrow the quota, a background task deletes
+     * the least recently accessed entries until it fits again.
+     *
+     * @param quotaBytes The maximum size of the disk cache in bytes, or 0 for no limit.
+     */
+    public void setDiskQuota(long quotaBytes) {
+        if (diskStore != null) {
+            diskStore.setQuota(quotaBytes);
+        }
+    }
 
     /**
-     * Shuts down the background thread pool used for disk writes.
+     * @return A snapshot of the hit counters, latencies and tier sizes of this cache.
+     */
+    public CacheStats stats() {
+        return new CacheStats(cacheName, metrics, memoryCache.size(), memoryCache.weightedSize(),
+                memoryCache.maximumWeight(),
+                offHeapStore == null ? 0 : offHeapStore.size(),
+                offHeapStore == null ? 0 : offHeapStore.usedBytes(),
+                offHeapStore == null ? 0 : offHeapStore.capacity(),
+                writeQueue.size(), writeQueue.coalescedCount(), writeQueue.droppedCount(),
+                diskStore == null ? 0 : diskStore.size(),
+                diskStore == null ? 0 : diskStore.diskSize());
+    }
+
+    /**
+     * Stops accepting disk writes, writes everything still queued in the order it was
+     * queued and seals the active disk segment.
      * This should be called when the application is closing.
      */
     public void shutdown() {
-        diskWriterService.shutdown();
+        if (offHeapWriter != null) {
+            offHeapWriter.shutdownNow();
+        }
+        try {
+            if (!writeQueue.close(5, TimeUnit.SECONDS)) {
+                System.err.println("Timed out waiting for disk cache writes: " + diskCacheDir);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (diskStore != null) {
+            diskStore.close();
+        }
+        monitor.unregister();
     }
 
     // --- Private Helper Methods ---
 
-    private Path getFileForKey(K key) {
-        // Sanitize the key to create a valid and safe filename
-        String fileName = key.toString().replaceAll("[^a-zA-Z0-9.-]", "_") + ".cache";
-        return diskCacheDir.resolve(fileName);
+    /**
+     * Registers a caller as waiting for the load of a key, starting the given flight if
+     * none is in progress.
+     *
+     * @return The flight the caller is now waiting for.
+     */
+    private Flight<V> join(K key, Flight<V> candidate) {
+        return inFlight.compute(key, (k, current) -> current != null && current.join() ? current : candidate);
+    }
+
+    /**
+     * Detaches a caller from a flight, cancelling the load once nobody is waiting for it.
+     */
+    private void release(K key, Flight<V> flight) {
+        if (flight.release()) {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private void runLoad(K key, File source, Loader<K, V> loader, Flight<V> flight) {
+        if (!flight.start()) {
+            return;
+        }
+        try {
+            V value = loader.load(key);
+            if (value != null) {
+                put(key, value, source);
+            }
+            complete(key, flight, value);
+        } catch (InterruptedIOException | ClosedByInterruptException e) {
+            inFlight.remove(key, flight);
+            flight.future.cancel(false);
+        } catch (Exception | Error e) {
+            inFlight.remove(key, flight);
+            flight.future.completeExceptionally(e);
+        } finally {
+            flight.finish();
+        }
     }
 
-    private void writeToDisk(K key, V value) {
-        Path filePath = getFileForKey(key);
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath.toFile()))) {
-            oos.writeObject(value);
+    private void complete(K key, Flight<V> flight, V value) {
+        // Removed first, so a caller that misses after this starts a fresh load rather than joining a finished one
+        inFlight.remove(key, flight);
+        flight.future.complete(value);
+    }
+
+    private static IOException rethrow(Throwable cause) {
+        if (cause instanceof IOException e) {
+            return e;
+        }
+        if (cause instanceof RuntimeException e) {
+            throw e;
+        }
+        if (cause instanceof Error e) {
+            throw e;
+        }
+        return new IOException(cause);
+    }
+
+    private void writeBatch(List<PendingWrite<K, V>> writes) {
+        if (diskStore == null) return;
+        long start = System.nanoTime();
+        long bytes = 0;
+        SegmentStore.Batch batch = new SegmentStore.Batch();
+        for (PendingWrite<K, V> write : writes) {
+            String key = write.getKey().toString();
+            if (write.isDelete()) {
+                batch.delete(key);
+                continue;
+            }
+            byte[] encoded;
+            try {
+                encoded = codec.encode(write.getValue());
+            } catch (IOException e) {
+                System.err.println("Error encoding disk cache entry for key: " + key);
+                e.printStackTrace();
+                continue;
+            }
+            byte[] entry = EntryHeader.wrap(codec.id(), encoded);
+            batch.put(key, entry, write.getSourcePath(), write.getSourceModified());
+            bytes += entry.length;
+        }
+        try {
+            diskStore.write(batch);
+            metrics.recordDiskWrite(batch.size(), bytes, System.nanoTime() - start);
         } catch (IOException e) {
-            System.err.println("Error writing to disk cache for key: " + key);
+            metrics.recordDiskError();
+            System.err.println("Error writing " + batch.size() + " entries to disk cache: " + diskCacheDir);
             e.printStackTrace();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private V readFromDisk(K key) {
-        Path filePath = getFileForKey(key);
-        if (!Files.exists(filePath)) {
+    /**
+     * Called with entries evicted from the memory tier; encodes them into the off-heap tier,
+     * if there is one, on the off-heap writer thread.
+     */
+    private void onEvicted(K key, V value) {
+        metrics.recordEviction();
+        if (offHeapStore == null) return;
+        long removalsAtEviction = removals.get();
+        offHeapWriter.execute(() -> {
+            if (removals.get() != removalsAtEviction) {
+                return; // Might have been removed after it was evicted
+            }
+            try {
+                offHeapStore.put(key, codec.encode(value));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error encoding off-heap cache entry for key: " + key + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private V readFromOffHeap(K key) {
+        if (offHeapStore == null) return null;
+        byte[] encoded = offHeapStore.get(key);
+        if (encoded == null) {
             return null;
         }
+        try {
+            return codec.decode(encoded);
+        } catch (IOException | RuntimeException e) {
+            offHeapStore.remove(key);
+            return null;
+        }
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath.toFile()))) {
-            return (V) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error reading from disk cache for key: " + key + ". Deleting corrupt file.");
-            // The cached file might be corrupt or from an old version of the class.
-            try {
-                Files.deleteIfExists(filePath);
-            } catch (IOException deleteException) {
-                // Ignore
+    /**
+     * Reads an entry's header first and only reads and decodes the payload if the header
+     * is of the current format and codec.
+     */
+    private V readFromDisk(K key) {
+        if (diskStore == null) return null;
+        String diskKey = key.toString();
+        byte[] entry;
+        EntryHeader header;
+        try {
+            if (diskStore.metadata(diskKey) == null) {
+                return null;
+            }
+            header = EntryHeader.read(diskStore.readPrefix(diskKey, EntryHeader.SIZE));
+            if (header == null || header.getCodecId() != codec.id()) {
+                // Written by an older format or another codec, treat as a miss
+                remove(key);
+                return null;
             }
+            entry = diskStore.read(diskKey);
+        } catch (IOException e) {
+            System.err.println("Error reading from disk cache for key: " + key + ": " + e.getMessage());
+            metrics.recordDiskError();
+            return null;
+        }
+        if (entry == null) {
+            return null;
+        }
+        // Parsed again in case the value was replaced after its header was checked
+        header = EntryHeader.read(entry);
+        if (header == null || header.getCodecId() != codec.id() || !header.matches(entry)) {
+            System.err.println("Checksum mismatch in disk cache for key: " + key + ". Deleting corrupt entry.");
+            metrics.recordDiskError();
+            remove(key);
+            return null;
+        }
+
+        try {
+            return codec.decode(header.payload(entry));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading from disk cache for key: " + key + ". Deleting corrupt entry.");
+            metrics.recordDiskError();
+            // The cached entry might be corrupt or from an old version of the class.
+            remove(key);
             return null;
         }
     }
+
+    /**
+     * Deletes the one-file-per-entry cache files written by earlier versions.
+     */
+    private void deleteLegacyCacheFiles() {
+        try (Stream<Path> files = Files.list(diskCacheDir)) {
+            files.filter(path -> path.getFileName().toString().endsWith(".cache")).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    // Ignore, retried on next start
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error removing legacy cache files: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One load of one key and the callers waiting for it.
+     */
+    private static final class Flight<V> {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        // Guarded by this
+        private int waiters = 1;
+        private Thread runner;
+        private boolean cancelled;
+
+        synchronized boolean join() {
+            if (cancelled || future.isDone()) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * @return true if this was the last waiter and the load was cancelled.
+         */
+        synchronized boolean release() {
+            if (--waiters > 0 || future.isDone()) {
+                return false;
+            }
+            cancelled = true;
+            future.cancel(false);
+            if (runner != null) {
+                runner.interrupt();
+            }
+            return true;
+        }
+
+        synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        synchronized void finish() {
+            runner = null;
+            if (cancelled) {
+                // The interrupt was meant for this load, not whatever the thread runs next
+                Thread.interrupted();
+            }
+        }
+    }
 }
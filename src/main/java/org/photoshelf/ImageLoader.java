@@ -1,115 +1,395 @@
 package org.photoshelf;
 
+import org.photoshelf.cache.LatencyHistogram;
 import org.photoshelf.service.PluginManager;
+import org.photoshelf.ui.ImagePanelManager;
+import org.photoshelf.ui.ThumbnailGrid;
+import org.photoshelf.ui.ThumbnailItem;
 import javax.swing.*;
+import javax.swing.event.ChangeListener;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills the grid for a list of files. Every cell is added at once with the blurred
+ * placeholder stored in the catalog, loaded for the whole directory in one query, and
+ * each thumbnail replaces its placeholder as soon as it is ready.
+ * <p>
+ * Decoding follows the viewport. Cells on screen are decoded first, cells within half a
+ * screen above and below are prefetched, and everything else waits in the background
+ * lane. Each scroll, resize, sort or filter moves the cells now in view to the front of
+ * the queue and sends queued cells that left the view back to the background lane.
+ * <p>
+ * Finished thumbnails go to a completion queue and are published in the order they finish,
+ * so a slow video thumbnail does not hold back the cells after it; each cell keeps its slot
+ * in the grid whatever order it completes in. The time from starting a load to the first
+ * thumbnail shown on screen is recorded in {@link #getFirstVisibleLatency()}, which is
+ * published over JMX as a {@link LoaderMonitor} and shown in the status bar.
+ * <p>
+ * Each cell goes through two stages, so decode threads do not sit waiting on the disk:
+ * <ol>
+ *   <li>On the I/O scheduler, the cell is looked up in the atlas and the cache, which only
+ *       reads. On a miss, the source file is read into memory.</li>
+ *   <li>On the decode scheduler, the image is decoded from those bytes and scaled.</li>
+ * </ol>
+ * Writing the results to the cache happens behind both, on the cache's own write-behind
+ * threads. Prefetched bytes waiting for a decode thread are limited to a budget, 64 MB by
+ * default or {@code -Dphotoshelf.prefetchMB}, and the I/O stage waits when it is used up.
+ */
+public class ImageLoader extends SwingWorker<Integer, ImageLoader.LoadedThumbnail> {
+
+    /**
+     * A finished thumbnail for a cell, or a null icon if it could not be loaded.
+     */
+    record LoadedThumbnail(ThumbnailItem item, ImageIcon icon) {
+    }
+
+    private static final LatencyHistogram FIRST_VISIBLE_LATENCY = new LatencyHistogram();
+    private static final long PREFETCH_BYTES = Long.getLong("photoshelf.prefetchMB", 64) * 1024 * 1024;
 
-public class ImageLoader extends SwingWorker<Integer, JLabel> {
     private final List<File> filesToDisplay;
     private final int thumbnailSize;
     private final PhotoShelfUI ui;
-    private final JPanel imagePanel;
+    private final ThumbnailGrid imagePanel;
+    private final DecodeScheduler.View ioView = DecodeScheduler.getIoInstance().newView();
+    private final DecodeScheduler.View decodeView = DecodeScheduler.getInstance().newView();
+    // In KiB, so large budgets fit in an int
+    private final Semaphore prefetchBudget = new Semaphore((int) Math.max(1, PREFETCH_BYTES / 1024));
+    private final Map<ThumbnailItem, Request> requests = new IdentityHashMap<>();
+    private final Object scheduleLock = new Object();
+    private final BlockingQueue<LoadedThumbnail> completed = new LinkedBlockingQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger processedCount = new AtomicInteger();
+    private final ChangeListener viewListener = e -> scheduleVisible();
+    // Only touched on the EDT
+    private Set<Request> urgent = Collections.emptySet();
+    private JViewport viewport;
+    private boolean firstVisibleRecorded;
 
-    public ImageLoader(PhotoShelfUI ui, JPanel imagePanel, List<File> filesToDisplay, int thumbnailSize) {
+    public ImageLoader(PhotoShelfUI ui, ThumbnailGrid imagePanel, List<File> filesToDisplay, int thumbnailSize) {
         this.ui = ui;
         this.imagePanel = imagePanel;
         this.filesToDisplay = filesToDisplay;
         this.thumbnailSize = thumbnailSize;
     }
 
+    /**
+     * @return The time from starting each load to its first thumbnail shown on screen.
+     */
+    public static LatencyHistogram getFirstVisibleLatency() {
+        return FIRST_VISIBLE_LATENCY;
+    }
+
     @Override
     protected Integer doInBackground() throws Exception {
-        int numThreads = Runtime.getRuntime().availableProcessors();
-        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-        List<Future<JLabel>> futures = new ArrayList<>();
+        List<ThumbnailItem> items = createPlaceholderItems();
+        for (ThumbnailItem item : items) {
+            requests.put(item, new Request(item));
+        }
+        // Waits for the first screenful to be queued, so it is not queued behind the rest
+        SwingUtilities.invokeAndWait(() -> {
+            // Cancelling clears the panel on the EDT, so this check cannot race with it
+            if (isCancelled()) return;
+            imagePanel.addItems(items);
+            viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, imagePanel);
+            if (viewport != null) {
+                viewport.addChangeListener(viewListener);
+            }
+            imagePanel.addChangeListener(viewListener);
+            scheduleVisible();
+        });
 
-        for (File file : filesToDisplay) {
-            if (isCancelled()) break;
+        for (ThumbnailItem item : items) {
+            if (isCancelled()) return processedCount.get();
+            Request request = requests.get(item);
+            synchronized (scheduleLock) {
+                if (request.future == null) {
+                    submit(request, DecodeScheduler.Priority.BACKGROUND);
+                }
+            }
+        }
+
+        // Publish in completion order, taking whatever else finished meanwhile in the same batch
+        List<LoadedThumbnail> batch = new ArrayList<>();
+        int resolved = 0;
+        while (resolved < items.size() && !isCancelled()) {
+            batch.add(completed.take());
+            completed.drainTo(batch);
+            resolved += batch.size();
+            publish(batch.toArray(new LoadedThumbnail[0]));
+            batch.clear();
+        }
+        ui.flushThumbnailAtlas();
+        return processedCount.get();
+    }
+
+    @Override
+    protected void done() {
+        // Runs as soon as the loader is cancelled, so the abandoned grid stops taking I/O and decode slots
+        ioView.cancel();
+        decodeView.cancel();
+        imagePanel.removeChangeListener(viewListener);
+        if (viewport != null) {
+            viewport.removeChangeListener(viewListener);
+        }
+    }
+
+    @Override
+    protected void process(List<LoadedThumbnail> chunks) {
+        List<ThumbnailItem> removed = new ArrayList<>();
+        for (LoadedThumbnail thumbnail : chunks) {
+            if (isCancelled()) return;
+            if (thumbnail.icon() != null) {
+                thumbnail.item().setIcon(thumbnail.icon());
+                imagePanel.itemChanged(thumbnail.item());
+                if (!firstVisibleRecorded && isOnScreen(thumbnail.item())) {
+                    recordFirstVisible();
+                }
+            } else {
+                // Files without a thumbnail are not shown
+                removed.add(thumbnail.item());
+            }
+        }
+        if (!removed.isEmpty()) {
+            imagePanel.removeItems(removed);
+        }
+    }
+
+    private boolean isOnScreen(ThumbnailItem item) {
+        Rectangle bounds = imagePanel.getCellBounds(item);
+        return bounds != null && bounds.intersects(imagePanel.getVisibleRect());
+    }
+
+    private void recordFirstVisible() {
+        firstVisibleRecorded = true;
+        FIRST_VISIBLE_LATENCY.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Queues the cells on screen as visible and the cells around them as prefetch, and moves
+     * cells that were queued that way but are now out of view back to the background lane.
+     * Runs on the EDT.
+     */
+    private void scheduleVisible() {
+        Rectangle visible = imagePanel.getVisibleRect();
+        if (isDone() || visible.isEmpty()) {
+            return;
+        }
+        int margin = Math.max(visible.height / 2, thumbnailSize + 40);
+        Rectangle window = new Rectangle(visible.x, visible.y - margin, visible.width, visible.height + 2 * margin);
+
+        Set<Request> wanted = Collections.newSetFromMap(new IdentityHashMap<>());
+        synchronized (scheduleLock) {
+            for (ThumbnailItem item : imagePanel.getItemsIn(window)) {
+                Request request = requests.get(item);
+                if (request == null) continue; // Added later, e.g. by the directory watcher
+                submit(request, isOnScreen(item) ? DecodeScheduler.Priority.VISIBLE : DecodeScheduler.Priority.PREFETCH);
+                wanted.add(request);
+            }
+            for (Request request : urgent) {
+                if (!wanted.contains(request)) {
+                    submit(request, DecodeScheduler.Priority.BACKGROUND);
+                }
+            }
+        }
+        urgent = wanted;
+    }
 
-            Callable<JLabel> task = () -> {
+    /**
+     * Queues a cell at a priority, replacing its queued task if it has another priority.
+     * A cell waiting for a decode thread has its decode task moved; a cell being read keeps
+     * the priority for its decode. Does nothing once the decode has started. Call with the
+     * schedule lock held.
+     */
+    private void submit(Request request, DecodeScheduler.Priority priority) {
+        if (request.future != null && request.priority == priority) {
+            return;
+        }
+        request.priority = priority;
+        if (request.decode != null) {
+            if (!request.decoding.get()) {
+                request.future.cancel(false);
+                request.future = decodeView.submit(priority, request.decode);
+            }
+            return;
+        }
+        if (request.taken.get()) {
+            return; // Being read; its decode is queued at the priority recorded above
+        }
+        if (request.future != null) {
+            request.future.cancel(false);
+        }
+        request.future = ioView.submit(priority, () -> {
+            // Whichever of a cell's tasks starts first loads it; the replaced ones do nothing
+            if (request.taken.compareAndSet(false, true)) {
                 try {
-                    // Use PluginManager to get thumbnail if available (e.g. for videos)
-                    BufferedImage thumb = null;
-                    try {
-                        thumb = PluginManager.getInstance().getThumbnail(file);
-                    } catch (Exception e) {
-                        // Ignore plugin errors
-                    }
-                    
-                    ImageIcon icon;
-                    if (thumb != null) {
-                        // Scale plugin thumbnail
-                        int imgWidth = thumb.getWidth();
-                        int imgHeight = thumb.getHeight();
-                        if (thumbnailSize >= imgWidth && thumbnailSize >= imgHeight) {
-                            icon = new ImageIcon(thumb);
-                        } else {
-                            double scale = Math.min((double) thumbnailSize / imgWidth, (double) thumbnailSize / imgHeight);
-                            int newWidth = (int) (imgWidth * scale);
-                            int newHeight = (int) (imgHeight * scale);
-                            Image scaled = thumb.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
-                            icon = new ImageIcon(scaled);
-                        }
-                    } else {
-                        // Fallback to standard ImageIO via UI helper
-                        icon = ui.createDisplayIcon(file, thumbnailSize, thumbnailSize);
-                    }
-
-                    if (icon == null) return null;
-                    
-                    String name = file.getName();
-                    String shortName = name.length() > 20 ? name.substring(0, 17) + "..." : name;
-                    JLabel label = new JLabel(shortName, icon, JLabel.CENTER);
-                    label.setHorizontalTextPosition(JLabel.CENTER);
-                    label.setVerticalTextPosition(JLabel.BOTTOM);
-                    label.setBorder(ui.isDuplicate(file) ? BorderFactory.createLineBorder(Color.RED, 2) : BorderFactory.createEmptyBorder(4, 4, 4, 4));
-                    label.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-                    label.putClientProperty("imageFile", file);
-                    label.setPreferredSize(new Dimension(thumbnailSize + 8, thumbnailSize + 40));
-                    label.setAlignmentX(Component.LEFT_ALIGNMENT);
-                    label.addMouseListener(ui.createImageMouseListener());
-                    return label;
-                } catch (Exception e) {
-                    System.err.println("Could not load thumbnail for " + file.getName() + ": " + e.getMessage());
-                    return null;
+                    readStage(request);
+                } catch (RuntimeException | Error e) {
+                    // The cell must still complete, or the publishing loop waits for it forever
+                    System.err.println("Could not load thumbnail for " + request.item.getFile().getName() + ": " + e);
+                    complete(request, null);
                 }
-            };
-            futures.add(executor.submit(task));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Finishes a cell from the cache, or reads its source and passes it to the decode stage
+     * at the cell's current priority. The decode task stays on the request, so later
+     * scrolling can move it between lanes until it starts.
+     */
+    private void readStage(Request request) {
+        File file = request.item.getFile();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        ImageIcon cached = ui.findCachedDisplayIcon(file, thumbnailSize, thumbnailSize);
+        // The lookup fingerprinted the file; kept so the grid can be recorded without touching it again
+        request.item.setSourceState(length, lastModified,
+                FingerprintManager.getInstance().getKnownFingerprint(file, length, lastModified));
+        if (cached != null) {
+            complete(request, cached);
+            return;
         }
 
-        int processedCount = 0;
-        for (Future<JLabel> future : futures) {
+        PrefetchedSource source = null;
+        int permits = 0;
+        // Plugins read their files themselves, and very large files are streamed by the decoder
+        if (length > 0 && length <= PREFETCH_BYTES && !PluginManager.getInstance().providesThumbnail(file)) {
+            permits = (int) Math.max(1, length / 1024);
             try {
-                if (isCancelled()) break;
-                JLabel label = future.get();
-                if (label != null) {
-                    publish(label);
-                    processedCount++;
-                }
+                prefetchBudget.acquire(permits); // Waits while the decode stage is behind
             } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (ExecutionException e) {
-                System.err.println("Error processing image: " + e.getCause().getMessage());
+                return; // Cancelled
+            }
+            try {
+                source = PrefetchedSource.read(file);
+            } catch (IOException e) {
+                // Left to the decode stage, which reports it
+            } finally {
+                if (source == null) {
+                    prefetchBudget.release(permits);
+                    permits = 0;
+                }
             }
         }
 
-        executor.shutdownNow();
-        return processedCount;
+        PrefetchedSource prefetched = source;
+        int reserved = permits;
+        Callable<Void> decode = () -> {
+            // Whichever of the cell's decode tasks starts first decodes it, as in the read stage
+            if (!request.decoding.compareAndSet(false, true)) {
+                return null;
+            }
+            ImageIcon icon = null;
+            try {
+                icon = prefetched != null ? prefetched.use(() -> loadThumbnail(file)) : loadThumbnail(file);
+            } finally {
+                prefetchBudget.release(reserved);
+                complete(request, icon);
+            }
+            return null;
+        };
+        synchronized (scheduleLock) {
+            request.decode = decode;
+            request.future = decodeView.submit(request.priority, decode);
+        }
     }
 
-    @Override
-    protected void process(List<JLabel> chunks) {
-        for (JLabel label : chunks) {
-            if (isCancelled()) break;
-            imagePanel.add(label);
+    private void complete(Request request, ImageIcon icon) {
+        if (icon != null) {
+            processedCount.incrementAndGet();
+        }
+        completed.add(new LoadedThumbnail(request.item, icon));
+    }
+
+    private ImageIcon loadThumbnail(File file) {
+        try {
+            // Use PluginManager to get thumbnail if available (e.g. for videos)
+            BufferedImage thumb = null;
+            try {
+                thumb = PluginManager.getInstance().getThumbnail(file);
+            } catch (Exception e) {
+                // Ignore plugin errors
+            }
+
+            ImageIcon icon;
+            if (thumb != null) {
+                // Scale plugin thumbnail
+                int imgWidth = thumb.getWidth();
+                int imgHeight = thumb.getHeight();
+                if (thumbnailSize >= imgWidth && thumbnailSize >= imgHeight) {
+                    icon = new ImageIcon(thumb);
+                } else {
+                    double scale = Math.min((double) thumbnailSize / imgWidth, (double) thumbnailSize / imgHeight);
+                    int newWidth = (int) (imgWidth * scale);
+                    int newHeight = (int) (imgHeight * scale);
+                    Image scaled = thumb.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
+                    icon = new ImageIcon(scaled);
+                }
+            } else {
+                // Fallback to standard ImageIO via UI helper
+                icon = ui.createDisplayIcon(file, thumbnailSize, thumbnailSize);
+            }
+            return icon;
+        } catch (Exception e) {
+            System.err.println("Could not load thumbnail for " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private List<ThumbnailItem> createPlaceholderItems() {
+        Set<File> directories = new LinkedHashSet<>();
+        for (File file : filesToDisplay) {
+            directories.add(file.getAbsoluteFile().getParentFile());
+        }
+        Map<String, byte[]> placeholders = new HashMap<>();
+        for (File directory : directories) {
+            placeholders.putAll(ui.getPHashCacheManager().getPlaceholders(directory));
+        }
+
+        ImagePanelManager panelManager = ui.getImagePanelManager();
+        List<ThumbnailItem> items = new ArrayList<>(filesToDisplay.size());
+        for (File file : filesToDisplay) {
+            Icon icon = panelManager.createPlaceholderIcon(placeholders.get(file.getAbsolutePath()), thumbnailSize);
+            items.add(ui.buildImageItem(file, icon));
+        }
+        return items;
+    }
+
+    /**
+     * The load of one cell. Its queued task, of either stage, is replaced when the cell's
+     * priority changes.
+     */
+    private static final class Request {
+        final ThumbnailItem item;
+        final AtomicBoolean taken = new AtomicBoolean();
+        final AtomicBoolean decoding = new AtomicBoolean();
+        // Written with the schedule lock held
+        volatile DecodeScheduler.Priority priority;
+        Future<?> future;
+        // Set once the source is read, with the schedule lock held
+        Callable<Void> decode;
+
+        Request(ThumbnailItem item) {
+            this.item = item;
         }
-        imagePanel.revalidate();
-        imagePanel.repaint();
     }
 }
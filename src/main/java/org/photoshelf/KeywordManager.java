@@ -149,34 +149,6 @@ public class KeywordManager {
         return keywords;
     }
 
-    public int cleanup() {
-        int removedCount = 0;
-        String selectSql = "SELECT DISTINCT file_path FROM keywords";
-        String deleteSql = "DELETE FROM keywords WHERE file_path = ?";
-        
-        Connection conn = dbManager.getConnection();
-        if (conn == null) return 0;
-        try (PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-             PreparedStatement deleteStmt = conn.prepareStatement(deleteSql);
-             ResultSet rs = selectStmt.executeQuery()) {
-            
-            while (rs.next()) {
-                String path = rs.getString("file_path");
-                if (!new File(path).exists()) {
-                    deleteStmt.setString(1, path);
-                    deleteStmt.addBatch();
-                    removedCount++;
-                }
-            }
-            if (removedCount > 0) {
-                deleteStmt.executeBatch();
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return removedCount;
-    }
-
     public void shutdown() {
         // Do not close the singleton DB manager here
     }
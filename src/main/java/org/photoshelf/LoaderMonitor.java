@@ -0,0 +1,74 @@
+package org.photoshelf;
+
+import org.photoshelf.cache.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the time from starting a thumbnail load to its first thumbnail on screen
+ * through JMX, as {@link org.photoshelf.cache.CacheMonitor} does for the caches.
+ */
+public class LoaderMonitor implements LoaderMonitorMXBean {
+    private final LatencyHistogram firstVisible;
+    private ObjectName objectName;
+
+    public LoaderMonitor(LatencyHistogram firstVisible) {
+        this.firstVisible = firstVisible;
+    }
+
+    /**
+     * Registers this monitor with the platform MBean server. Failures are logged and ignored.
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.photoshelf:type=ImageLoader");
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            System.err.println("Failed to register image loader MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes this monitor from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Already gone
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getFirstVisibleCount() {
+        return firstVisible.count();
+    }
+
+    @Override
+    public long getFirstVisibleMeanMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(firstVisible.meanNanos());
+    }
+
+    @Override
+    public long getFirstVisibleP50Millis() {
+        return TimeUnit.NANOSECONDS.toMillis(firstVisible.percentileNanos(50));
+    }
+
+    @Override
+    public long getFirstVisibleP99Millis() {
+        return TimeUnit.NANOSECONDS.toMillis(firstVisible.percentileNanos(99));
+    }
+}
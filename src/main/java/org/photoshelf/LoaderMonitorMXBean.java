@@ -0,0 +1,14 @@
+package org.photoshelf;
+
+/**
+ * The JMX view of thumbnail loading, registered as {@code org.photoshelf:type=ImageLoader}.
+ */
+public interface LoaderMonitorMXBean {
+    long getFirstVisibleCount();
+
+    long getFirstVisibleMeanMillis();
+
+    long getFirstVisibleP50Millis();
+
+    long getFirstVisibleP99Millis();
+}
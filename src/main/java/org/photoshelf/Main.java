@@ -2,6 +2,7 @@ package org.photoshelf;
 
 import com.formdev.flatlaf.FlatDarkLaf;
 import com.twelvemonkeys.imageio.plugins.webp.WebPImageReaderSpi;
+import org.photoshelf.cache.CodecBenchmark;
 
 import javax.imageio.spi.IIORegistry;
 
@@ -9,6 +10,10 @@ public class Main {
     public static void main(String[] args) {
         if (args.length == 1 && args[0].equals("--cleanup"))
             CleanupTool.cleanUp(args);
+        if (args.length >= 1 && args[0].equals("--benchmark-codecs")) {
+            CodecBenchmark.run(args);
+            return;
+        }
         FlatDarkLaf.setup();
         IIORegistry.getDefaultInstance().registerServiceProvider(new WebPImageReaderSpi());
         javax.swing.SwingUtilities.invokeLater(() -> new PhotoShelfUI().setVisible(true));
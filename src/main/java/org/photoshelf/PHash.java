@@ -1,6 +1,5 @@
 package org.photoshelf;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
@@ -8,9 +7,14 @@ import java.io.File;
 import java.io.IOException;
 
 public class PHash {
+    /**
+     * The size images are decoded at for hashing. The preferred and lowest usable sizes are
+     * the same, so the hash of a file does not depend on how much decode memory is free.
+     */
+    public static final int SOURCE_SIZE = 64;
 
     public static String getHash(File file) throws IOException {
-        BufferedImage img = ImageIO.read(file);
+        BufferedImage img = DecodeGovernor.getInstance().read(file, SOURCE_SIZE, SOURCE_SIZE, SOURCE_SIZE, SOURCE_SIZE);
         if (img == null) {
             throw new IOException("Unsupported image format");
         }
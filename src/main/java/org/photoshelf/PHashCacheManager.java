@@ -51,7 +51,7 @@ public class PHashCacheManager {
         if (conn == null) return null;
 
         // Check DB
-        String sqlSelect = "SELECT hash, last_modified FROM image_hashes WHERE file_path = ?";
+        String sqlSelect = "SELECT hash, last_modified, placeholder FROM image_hashes WHERE file_path = ?";
         try (PreparedStatement pstmt = conn.prepareStatement(sqlSelect)) {
             pstmt.setString(1, filePath);
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -59,6 +59,10 @@ public class PHashCacheManager {
                     String hash = rs.getString("hash");
                     long lastModified = rs.getLong("last_modified");
                     if (lastModified == currentModified) {
+                        if (rs.getBytes("placeholder") == null) {
+                            // Hashed before placeholders were stored
+                            storePlaceholder(conn, file);
+                        }
                         return hash;
                     }
                 }
@@ -67,26 +71,60 @@ public class PHashCacheManager {
             e.printStackTrace();
         }
 
-        // Calculate new hash
-        String hash;
+        // Reuse the hash of a byte-identical file, such as this one before it was moved
+        String fingerprint = null;
         try {
-            hash = PHash.getHash(file);
+            fingerprint = FingerprintManager.getInstance().getFingerprint(file);
         } catch (IOException e) {
-            // Try getting thumbnail from plugins (e.g. for video)
-            BufferedImage thumb = PluginManager.getInstance().getThumbnail(file);
-            if (thumb != null) {
-                hash = PHash.getHash(thumb);
-            } else {
-                throw e;
+            System.err.println("Could not fingerprint " + filePath + ": " + e.getMessage());
+        }
+        String hash = null;
+        byte[] placeholder = null;
+        if (fingerprint != null) {
+            String sql = "SELECT hash, placeholder FROM image_hashes WHERE fingerprint = ? LIMIT 1";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, fingerprint);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        hash = rs.getString("hash");
+                        placeholder = rs.getBytes("placeholder");
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Calculate new hash, and the placeholder from the same decoded image
+        if (hash == null) {
+            BufferedImage img = null;
+            IOException readError = null;
+            try {
+                // A fixed resolution, so the stored hash is the same whatever memory is free
+                img = DecodeGovernor.getInstance().read(file, PHash.SOURCE_SIZE, PHash.SOURCE_SIZE,
+                        PHash.SOURCE_SIZE, PHash.SOURCE_SIZE);
+            } catch (IOException e) {
+                readError = e;
+            }
+            if (img == null) {
+                // Try getting thumbnail from plugins (e.g. for video)
+                img = PluginManager.getInstance().getThumbnail(file);
+                if (img == null) {
+                    throw readError != null ? readError : new IOException("Unsupported image format");
+                }
             }
+            hash = PHash.getHash(img);
+            placeholder = ThumbnailPlaceholder.encode(img);
         }
         
         // Update DB
-        String sqlMerge = "MERGE INTO image_hashes (file_path, hash, last_modified) KEY(file_path) VALUES (?, ?, ?)";
+        String sqlMerge = "MERGE INTO image_hashes (file_path, hash, last_modified, fingerprint, placeholder) KEY(file_path) VALUES (?, ?, ?, ?, ?)";
         try (PreparedStatement pstmt = conn.prepareStatement(sqlMerge)) {
             pstmt.setString(1, filePath);
             pstmt.setString(2, hash);
             pstmt.setLong(3, currentModified);
+            pstmt.setString(4, fingerprint);
+            pstmt.setBytes(5, placeholder);
             pstmt.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
@@ -95,6 +133,63 @@ public class PHashCacheManager {
         return hash;
     }
 
+    /**
+     * Computes the placeholder of a file that already has a current hash, decoding it at a
+     * reduced resolution.
+     */
+    private void storePlaceholder(Connection conn, File file) {
+        try {
+            BufferedImage img = ThumbnailPyramid.readSubsampled(file, 64, 64);
+            if (img == null) {
+                img = PluginManager.getInstance().getThumbnail(file);
+            }
+            if (img == null) {
+                return;
+            }
+            String sql = "UPDATE image_hashes SET placeholder = ? WHERE file_path = ?";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setBytes(1, ThumbnailPlaceholder.encode(img));
+                pstmt.setString(2, file.getAbsolutePath());
+                pstmt.executeUpdate();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not compute placeholder for " + file.getName() + ": " + e.getMessage());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads the stored placeholders of every file directly in a directory with one query.
+     *
+     * @param directory The directory.
+     * @return The encoded placeholders by absolute file path; files without one are absent.
+     */
+    public Map<String, byte[]> getPlaceholders(File directory) {
+        Map<String, byte[]> result = new HashMap<>();
+        Connection conn = dbManager.getConnection();
+        if (conn == null || directory == null) return result;
+
+        String prefix = directory.getAbsolutePath() + File.separator;
+        // A prefix match can use the primary key index; escape LIKE wildcards in the path
+        String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        String sql = "SELECT file_path, placeholder FROM image_hashes WHERE file_path LIKE ? ESCAPE '\\' AND placeholder IS NOT NULL";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, pattern);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String path = rs.getString("file_path");
+                    if (path.indexOf(File.separatorChar, prefix.length()) < 0) {
+                        result.put(path, rs.getBytes("placeholder"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
     public Set<String> getAllFilePaths() {
         Set<String> paths = new HashSet<>();
         String sql = "SELECT file_path FROM image_hashes";
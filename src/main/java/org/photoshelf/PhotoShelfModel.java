@@ -1,16 +1,17 @@
 package org.photoshelf;
 
-import javax.swing.*;
+import org.photoshelf.ui.ThumbnailItem;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
-import java.util.List;
+import java.util.Set;
 
 public class PhotoShelfModel {
-    private final List<JLabel> selectedLabels = new ArrayList<>();
+    private final Set<ThumbnailItem> selectedItems = new LinkedHashSet<>();
     private final LinkedList<File> recentLocations = new LinkedList<>();
     private File currentDirectory;
     private final KeywordManager keywordManager;
@@ -20,26 +21,24 @@ public class PhotoShelfModel {
     }
 
     // Selection Management
-    public List<JLabel> getSelectedLabels() {
-        return selectedLabels;
+    public Set<ThumbnailItem> getSelectedItems() {
+        return selectedItems;
     }
 
     public void clearSelection() {
-        selectedLabels.clear();
+        selectedItems.clear();
     }
 
-    public void addToSelection(JLabel label) {
-        if (!selectedLabels.contains(label)) {
-            selectedLabels.add(label);
-        }
+    public void addToSelection(ThumbnailItem item) {
+        selectedItems.add(item);
     }
 
-    public void removeFromSelection(JLabel label) {
-        selectedLabels.remove(label);
+    public void removeFromSelection(ThumbnailItem item) {
+        selectedItems.remove(item);
     }
 
-    public boolean isSelected(JLabel label) {
-        return selectedLabels.contains(label);
+    public boolean isSelected(ThumbnailItem item) {
+        return selectedItems.contains(item);
     }
 
     // Recent Locations
@@ -1,5 +1,12 @@
 package org.photoshelf;
 
+import org.photoshelf.cache.CompressedImageCodec;
+import org.photoshelf.cache.RawPixelCodec;
+import org.photoshelf.cache.SerializingCodec;
+import org.photoshelf.cache.ThumbnailAtlas;
+import org.photoshelf.cache.ValueCodec;
+import org.photoshelf.cache.ViewSnapshot;
+import org.photoshelf.cache.Weigher;
 import org.photoshelf.plugin.ImageProcessorPlugin;
 import org.photoshelf.plugin.PhotoShelfPlugin;
 import org.photoshelf.plugin.ThumbnailProviderPlugin;
@@ -9,9 +16,12 @@ import org.photoshelf.service.PhotoService;
 import org.photoshelf.service.PluginManager;
 import org.photoshelf.service.PluginStateListener;
 import org.photoshelf.ui.AllKeywordsDialog;
+import org.photoshelf.ui.AtlasIcon;
 import org.photoshelf.ui.ImagePanelManager;
 import org.photoshelf.ui.PluginManagementDialog;
 import org.photoshelf.ui.SelectionCallback;
+import org.photoshelf.ui.ThumbnailGrid;
+import org.photoshelf.ui.ThumbnailItem;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -41,8 +51,12 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
     private final StatusPanelManager statusPanelManager;
     private Thread directoryWatcherThread;
     private final HybridCache<String, ImageIcon> thumbnailCache;
+    private final ThumbnailPyramid thumbnailPyramid;
+    private volatile ThumbnailAtlas thumbnailAtlas;
+    // The directory listed in the grid, or null while it shows search results or duplicates
+    private File gridDirectory;
     private final Set<File> duplicateFiles = new HashSet<>();
-    private SwingWorker<Void, JLabel> resizerWorker;
+    private SwingWorker<Void, ThumbnailItem> resizerWorker;
     private final KeywordManager keywordManager;
     private final PHashCacheManager pHashCacheManager;
     private final Set<String> warmedDirectories = new HashSet<>();
@@ -78,7 +92,10 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         toolbarManager = new ToolbarManager(this);
         previewPanelManager = new PreviewPanelManager(this, keywordManager);
         statusPanelManager = new StatusPanelManager();
-        thumbnailCache = new HybridCache<>("thumbnails", 200);
+        thumbnailCache = new HybridCache<>("thumbnails", thumbnailMemoryBudget(), Weigher.imageIcon(), thumbnailCodec(),
+                thumbnailOffHeapBudget());
+        thumbnailCache.setDiskQuota(thumbnailDiskQuota());
+        thumbnailPyramid = new ThumbnailPyramid(thumbnailCache, FreedesktopThumbnails.fromEnvironment());
         pHashCacheManager = new PHashCacheManager();
 
         setJMenuBar(createMenuBar());
@@ -104,13 +121,32 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         duplicateListScroll = new JScrollPane(duplicateListPanel);
         duplicateListScroll.getVerticalScrollBar().setUnitIncrement(20);
 
-        File rootDir = new File(System.getProperty("user.home"));
-        model.setCurrentDirectory(rootDir);
-        displayImages(model.getCurrentDirectory());
+        // Repaint the last session's grid at once if it is still valid, otherwise start at the home directory
+        ViewSnapshot snapshot = ViewSnapshot.load();
+        if (snapshot == null || !restoreViewSnapshot(snapshot)) {
+            File rootDir = new File(System.getProperty("user.home"));
+            model.setCurrentDirectory(rootDir);
+            displayImages(model.getCurrentDirectory());
+        }
+
+        // Refresh the thumbnail cache and loading statistics in the status bar
+        LoaderMonitor loaderMonitor = new LoaderMonitor(ImageLoader.getFirstVisibleLatency());
+        loaderMonitor.register();
+        javax.swing.Timer cacheStatsTimer = new javax.swing.Timer(2000, e -> {
+            statusPanelManager.updateCacheStats(thumbnailCache.stats());
+            statusPanelManager.updateLoadStats(ImageLoader.getFirstVisibleLatency());
+        });
+        cacheStatsTimer.start();
 
         addWindowListener(new java.awt.event.WindowAdapter() {
             @Override
             public void windowClosing(java.awt.event.WindowEvent windowEvent) {
+                cacheStatsTimer.stop();
+                loaderMonitor.unregister();
+                saveViewSnapshot();
+                DecodeScheduler.getInstance().shutdown();
+                DecodeScheduler.getIoInstance().shutdown();
+                flushThumbnailAtlas();
                 thumbnailCache.shutdown();
                 pHashCacheManager.saveCache();
                 photoService.shutdown();
@@ -118,6 +154,52 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         });
     }
 
+    /**
+     * The heap budget for in-memory thumbnails: {@code -Dphotoshelf.thumbnailCache.memoryMB}
+     * if set, otherwise a quarter of the max heap capped at 512 MB.
+     */
+    private static long thumbnailMemoryBudget() {
+        long configuredMb = Long.getLong("photoshelf.thumbnailCache.memoryMB", -1);
+        if (configuredMb > 0) {
+            return configuredMb * 1024 * 1024;
+        }
+        return Math.min(512L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * The direct memory for encoded thumbnails evicted from the heap:
+     * {@code -Dphotoshelf.thumbnailCache.offHeapMB} if set (0 disables the tier),
+     * otherwise a quarter of the maximum heap, capped at 256 MB.
+     */
+    private static long thumbnailOffHeapBudget() {
+        long configuredMb = Long.getLong("photoshelf.thumbnailCache.offHeapMB", -1);
+        if (configuredMb >= 0) {
+            return configuredMb * 1024 * 1024;
+        }
+        return Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * The maximum size of the on-disk thumbnail cache: {@code -Dphotoshelf.thumbnailCache.diskQuotaMB}
+     * if set (0 means unlimited), otherwise 2 GB.
+     */
+    private static long thumbnailDiskQuota() {
+        return Math.max(0, Long.getLong("photoshelf.thumbnailCache.diskQuotaMB", 2048)) * 1024 * 1024;
+    }
+
+    /**
+     * The on-disk thumbnail format, chosen with {@code -Dphotoshelf.thumbnailCache.codec}:
+     * {@code jpeg} (default, smallest), {@code raw} (fastest to decode) or {@code serialized}.
+     * Run with {@code --benchmark-codecs} to compare them.
+     */
+    private static ValueCodec<ImageIcon> thumbnailCodec() {
+        return switch (System.getProperty("photoshelf.thumbnailCache.codec", "jpeg")) {
+            case "raw" -> new RawPixelCodec();
+            case "serialized" -> new SerializingCodec<>();
+            default -> new CompressedImageCodec();
+        };
+    }
+
     private void loadUiPlugins() {
         if (pluginsMenu == null) {
             pluginsMenu = new JMenu("Plugins");
@@ -294,16 +376,14 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         clearSelectionUI();
         for (File file : group) {
             try {
-                JLabel label = createImageLabel(file, imagePanelManager.getThumbnailSize());
-                if (label != null) {
-                    imagePanelManager.addImageLabel(label);
+                ThumbnailItem item = createImageItem(file, imagePanelManager.getThumbnailSize());
+                if (item != null) {
+                    imagePanelManager.addImageItem(item);
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        imagePanelManager.getImagePanel().revalidate();
-        imagePanelManager.getImagePanel().repaint();
         statusPanelManager.updateTotalFiles(group.size());
     }
 
@@ -328,75 +408,44 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         }
 
         clearSelectionUI();
-        JPanel imagePanel = imagePanelManager.getImagePanel();
-        for (Component comp : imagePanel.getComponents()) {
-            if (comp instanceof JLabel && comp.isVisible()) {
-                JLabel label = (JLabel) comp;
-                File file = (File) label.getClientProperty("imageFile");
-                if (file != null) {
-                    Set<String> fileKeywords = keywordManager.getKeywords(file);
-                    if (fileKeywords.containsAll(keywordsToMatch)) {
-                        addToSelectionUI(label);
-                    }
-                }
+        List<ThumbnailItem> matches = new ArrayList<>();
+        for (ThumbnailItem item : imagePanelManager.getImagePanel().getShownItems()) {
+            Set<String> fileKeywords = keywordManager.getKeywords(item.getFile());
+            if (fileKeywords.containsAll(keywordsToMatch)) {
+                matches.add(item);
             }
         }
+        addToSelectionUI(matches);
     }
 
     private void selectWithNoKeywords() {
         clearSelectionUI();
-        JPanel imagePanel = imagePanelManager.getImagePanel();
-        for (Component comp : imagePanel.getComponents()) {
-            if (comp instanceof JLabel && comp.isVisible()) {
-                JLabel label = (JLabel) comp;
-                File file = (File) label.getClientProperty("imageFile");
-                if (file != null) {
-                    if (keywordManager.getKeywords(file).isEmpty()) {
-                        addToSelectionUI(label);
-                    }
-                }
+        List<ThumbnailItem> matches = new ArrayList<>();
+        for (ThumbnailItem item : imagePanelManager.getImagePanel().getShownItems()) {
+            if (keywordManager.getKeywords(item.getFile()).isEmpty()) {
+                matches.add(item);
             }
         }
+        addToSelectionUI(matches);
     }
 
     private void selectAllVisible() {
-        JPanel imagePanel = imagePanelManager.getImagePanel();
-        for (Component comp : imagePanel.getComponents()) {
-            // Only select items that are currently visible
-            if (comp instanceof JLabel && comp.isVisible()) {
-                JLabel label = (JLabel) comp;
-                // Add to selection without clearing others
-                addToSelectionUI(label);
-            }
-        }
+        // Only select items that are not filtered out, without clearing others
+        addToSelectionUI(imagePanelManager.getImagePanel().getShownItems());
     }
 
     public void filterToSelection(boolean addFilter) {
-        JPanel imagePanel = imagePanelManager.getImagePanel();
-        Set<JLabel> selectedLabels = new HashSet<>();
-        selectedLabels.addAll(model.getSelectedLabels());
-        if (selectedLabels.isEmpty()) {
+        ThumbnailGrid imagePanel = imagePanelManager.getImagePanel();
+        if (model.getSelectedItems().isEmpty()) {
             JOptionPane.showMessageDialog(this, "No images are selected.", "Filter to Selection", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
 
-        int visibleCount = 0;
-        for (Component comp : imagePanel.getComponents()) {
-            if (comp instanceof JLabel) {
-                JLabel label = (JLabel) comp;
-                if (!addFilter) {
-                    label.setVisible(true);
-                    visibleCount++;
-                } else if (selectedLabels.contains(label)) {
-                    label.setVisible(true);
-                    visibleCount++;
-                } else {
-                    label.setVisible(false);
-                }
-            }
+        for (ThumbnailItem item : imagePanel.getItems()) {
+            item.setHidden(addFilter && !model.isSelected(item));
         }
-        imagePanel.revalidate();
-        imagePanel.repaint();
+        imagePanel.refilter();
+        int visibleCount = imagePanel.getShownItems().size();
         statusPanelManager.updateTotalFiles(visibleCount);
         setSearchStatus("Filtered to " + visibleCount + " selected images.");
         toolbarManager.setFilteredToSelection(addFilter);
@@ -445,19 +494,197 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
             photoService.sortFiles(filesToDisplay, toolbarManager.getSortCriteria(), toolbarManager.isSortDescending());
         }
 
+        openThumbnailAtlas(dir, imagePanelManager.getThumbnailSize());
         ImageLoader imageLoader = new ImageLoader(this, imagePanelManager.getImagePanel(), filesToDisplay, imagePanelManager.getThumbnailSize());
         currentWorker = imageLoader;
         imageLoader.addPropertyChangeListener(evt -> {
             if ("state".equals(evt.getPropertyName()) && SwingWorker.StateValue.DONE.equals(evt.getNewValue())) {
-                statusPanelManager.updateTotalFiles(imagePanelManager.getImagePanel().getComponentCount());
+                statusPanelManager.updateTotalFiles(imagePanelManager.getImagePanel().getItemCount());
             }
         });
         imageLoader.execute();
+        gridDirectory = dir;
 
         directoryWatcherThread = new Thread(new DirectoryWatcher(this, dir));
         directoryWatcherThread.start();
     }
 
+    /**
+     * Paints the grid saved by the last session straight from the snapshot, with thumbnails
+     * from the directory's atlas, then reconciles it with the directory in the background.
+     *
+     * @return false if the snapshot was taken with other view settings and cannot be used.
+     */
+    private boolean restoreViewSnapshot(ViewSnapshot snapshot) {
+        File dir = snapshot.getDirectory();
+        int thumbnailSize = imagePanelManager.getThumbnailSize();
+        if (!dir.isDirectory() || snapshot.getThumbnailSize() != thumbnailSize
+                || !snapshot.getSortCriteria().equals(toolbarManager.getSortCriteria())
+                || snapshot.isSortDescending() != toolbarManager.isSortDescending()
+                || !snapshot.getFilterText().equals(toolbarManager.getFilterText())
+                || toolbarManager.isShowDuplicates()) {
+            return false;
+        }
+
+        setSearchStatus(null);
+        model.setCurrentDirectory(dir);
+        directoryTreeManager.setSelectedDirectory(dir);
+        toolbarManager.setFilteredToSelection(false);
+        prepareForNewTask();
+        duplicateFiles.clear();
+        openThumbnailAtlas(dir, thumbnailSize);
+
+        ThumbnailAtlas atlas = thumbnailAtlas;
+        List<ViewSnapshot.Entry> entries = snapshot.getEntries();
+        List<ThumbnailItem> items = new ArrayList<>(entries.size());
+        boolean[] painted = new boolean[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            ViewSnapshot.Entry entry = entries.get(i);
+            String name = entry.getFile().getName();
+            // Checked against the recorded modification time, so nothing touches the directory yet;
+            // the pixels are only copied out of the atlas when the cell is painted
+            painted[i] = atlas != null && atlas.contains(name, entry.getLastModified());
+            ThumbnailItem item = buildImageItem(entry.getFile(),
+                    painted[i] ? new AtlasIcon(atlas, name, entry.getLastModified(), thumbnailSize) : null);
+            item.setSourceState(entry.getLength(), entry.getLastModified(), entry.getFingerprint());
+            items.add(item);
+        }
+        imagePanelManager.getImagePanel().setItems(items);
+        statusPanelManager.updateTotalFiles(items.size());
+
+        SnapshotReconciler reconciler = new SnapshotReconciler(snapshot, items, painted);
+        currentWorker = reconciler;
+        gridDirectory = dir;
+        reconciler.execute();
+        return true;
+    }
+
+    /**
+     * Records the directory grid on screen for the next start, or forgets the previous
+     * record if the grid shows something else or is still loading.
+     */
+    private void saveViewSnapshot() {
+        File dir = gridDirectory;
+        if (dir == null || toolbarManager.isShowDuplicates()
+                || (currentWorker instanceof ImageLoader && !currentWorker.isDone())) {
+            ViewSnapshot.delete();
+            return;
+        }
+        // Written from what each item recorded when it was loaded, so closing does not touch the files;
+        // items with nothing recorded are reloaded by the next start's reconciler
+        List<ViewSnapshot.Entry> entries = new ArrayList<>();
+        for (ThumbnailItem item : imagePanelManager.getImagePanel().getItems()) {
+            entries.add(new ViewSnapshot.Entry(item.getFile(), item.getLength(), item.getLastModified(),
+                    item.getFingerprint()));
+        }
+        new ViewSnapshot(dir, imagePanelManager.getThumbnailSize(), toolbarManager.getSortCriteria(),
+                toolbarManager.isSortDescending(), toolbarManager.getFilterText(), entries).save();
+    }
+
+    /**
+     * Checks a grid restored from a snapshot against its directory. If files were added,
+     * removed or reordered, the directory is loaded normally instead. Otherwise only the
+     * thumbnails that were missing from the atlas or whose file has changed are loaded,
+     * from the cached pyramid levels of the recorded fingerprint where possible.
+     */
+    private class SnapshotReconciler extends SwingWorker<Boolean, ThumbnailItem> {
+        private final ViewSnapshot snapshot;
+        private final List<ThumbnailItem> items;
+        private final boolean[] painted;
+
+        SnapshotReconciler(ViewSnapshot snapshot, List<ThumbnailItem> items, boolean[] painted) {
+            this.snapshot = snapshot;
+            this.items = items;
+            this.painted = painted;
+        }
+
+        @Override
+        protected Boolean doInBackground() throws Exception {
+            File dir = snapshot.getDirectory();
+            List<File> files = photoService.listFiles(dir, snapshot.getFilterText(), snapshot.getSortCriteria(),
+                    snapshot.isSortDescending());
+            List<ViewSnapshot.Entry> entries = snapshot.getEntries();
+            if (files.size() != entries.size()) {
+                return false;
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (!files.get(i).getAbsoluteFile().equals(entries.get(i).getFile())) {
+                    return false;
+                }
+            }
+
+            int thumbnailSize = snapshot.getThumbnailSize();
+            for (int i = 0; i < entries.size(); i++) {
+                if (isCancelled()) return true;
+                ViewSnapshot.Entry entry = entries.get(i);
+                boolean current = entry.isCurrent();
+                if (current && painted[i]) {
+                    continue;
+                }
+                File file = entry.getFile();
+                try {
+                    BufferedImage image = current && entry.getFingerprint() != null
+                            ? thumbnailPyramid.getCachedThumbnail(entry.getFingerprint(), thumbnailSize, thumbnailSize)
+                            : null;
+                    ImageIcon icon;
+                    if (image != null) {
+                        ThumbnailAtlas atlas = thumbnailAtlas;
+                        if (atlas != null && atlas.covers(file, thumbnailSize, thumbnailSize)) {
+                            atlas.add(file, image);
+                        }
+                        icon = new ImageIcon(image);
+                    } else {
+                        icon = createDisplayIcon(file, thumbnailSize, thumbnailSize);
+                    }
+                    ThumbnailItem item = items.get(i);
+                    item.setIcon(icon);
+                    long length = file.length();
+                    long lastModified = file.lastModified();
+                    item.setSourceState(length, lastModified,
+                            FingerprintManager.getInstance().getKnownFingerprint(file, length, lastModified));
+                    publish(item);
+                } catch (ClosedByInterruptException e) {
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("Could not load thumbnail for " + file.getName() + ": " + e.getMessage());
+                }
+            }
+            flushThumbnailAtlas();
+
+            // The scan that a normal directory load starts, done here to keep the first paint fast
+            photoService.scanDirectory(dir, null);
+            return true;
+        }
+
+        @Override
+        protected void process(List<ThumbnailItem> chunks) {
+            for (ThumbnailItem item : chunks) {
+                imagePanelManager.getImagePanel().itemChanged(item);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            File dir = snapshot.getDirectory();
+            try {
+                if (!get()) {
+                    displayImages(dir);
+                    return;
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                System.err.println("Could not reconcile the restored view: " + e.getMessage());
+                displayImages(dir);
+                return;
+            }
+            warmedDirectories.add(dir.getAbsolutePath());
+            directoryWatcherThread = new Thread(new DirectoryWatcher(PhotoShelfUI.this, dir));
+            directoryWatcherThread.start();
+        }
+    }
+
     public void sortCurrentView() {
         String sortCriteria = toolbarManager.getSortCriteria();
         boolean descending = toolbarManager.isSortDescending();
@@ -495,24 +722,12 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
     }
 
     private void filterImageGrid(SearchParams params) {
-        JPanel imagePanel = imagePanelManager.getImagePanel();
-        int visibleCount = 0;
-        for (Component comp : imagePanel.getComponents()) {
-            if (comp instanceof JLabel) {
-                JLabel label = (JLabel) comp;
-                File file = (File) label.getClientProperty("imageFile");
-                if (file != null) {
-                    if (checkFileMatches(file, params)) {
-                        label.setVisible(true);
-                        visibleCount++;
-                    } else {
-                        label.setVisible(false);
-                    }
-                }
-            }
+        ThumbnailGrid imagePanel = imagePanelManager.getImagePanel();
+        for (ThumbnailItem item : imagePanel.getItems()) {
+            item.setHidden(!checkFileMatches(item.getFile(), params));
         }
-        imagePanel.revalidate();
-        imagePanel.repaint();
+        imagePanel.refilter();
+        int visibleCount = imagePanel.getShownItems().size();
         statusPanelManager.updateTotalFiles(visibleCount);
         setSearchStatus("Filtered view: " + visibleCount + " images found.");
     }
@@ -548,21 +763,16 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         searcher.execute();
     }
 
-    public JLabel createImageLabel(File imgFile, int thumbnailSize) throws IOException {
+    public ThumbnailItem createImageItem(File imgFile, int thumbnailSize) throws IOException {
         ImageIcon icon = createDisplayIcon(imgFile, thumbnailSize, thumbnailSize);
         if (icon == null) return null;
-        String name = imgFile.getName();
-        String shortName = name.length() > 20 ? name.substring(0, 17) + "..." : name;
-        JLabel label = new JLabel(shortName, icon, JLabel.CENTER);
-        label.setHorizontalTextPosition(JLabel.CENTER);
-        label.setVerticalTextPosition(JLabel.BOTTOM);
-        label.setBorder(isDuplicate(imgFile) ? BorderFactory.createLineBorder(Color.RED, 2) : BorderFactory.createEmptyBorder(4, 4, 4, 4));
-        label.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-        label.putClientProperty("imageFile", imgFile);
-        label.setPreferredSize(new java.awt.Dimension(thumbnailSize + 8, thumbnailSize + 40));
-        label.setAlignmentX(Component.LEFT_ALIGNMENT);
-        label.addMouseListener(createImageMouseListener());
-        return label;
+        return buildImageItem(imgFile, icon);
+    }
+
+    ThumbnailItem buildImageItem(File imgFile, Icon icon) {
+        ThumbnailItem item = new ThumbnailItem(imgFile, icon);
+        item.setDuplicate(isDuplicate(imgFile));
+        return item;
     }
 
     public void addNewImage(File imgFile) {
@@ -570,9 +780,13 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
             return;
         }
         try {
-            JLabel label = createImageLabel(imgFile, imagePanelManager.getThumbnailSize());
-            if (label != null) {
-                imagePanelManager.addImageLabel(label);
+            ThumbnailItem item = createImageItem(imgFile, imagePanelManager.getThumbnailSize());
+            if (item != null) {
+                imagePanelManager.addImageItem(item);
+            }
+            ThumbnailAtlas atlas = thumbnailAtlas;
+            if (atlas != null) {
+                atlas.flushAsync();
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -580,166 +794,187 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         }
     }
 
+    /**
+     * Switches the thumbnail atlas to the given directory and size, flushing the previous one.
+     */
+    private void openThumbnailAtlas(File dir, int thumbnailSize) {
+        ThumbnailAtlas previous = thumbnailAtlas;
+        thumbnailAtlas = null;
+        if (previous != null) {
+            previous.flushAsync();
+        }
+        if (ThumbnailAtlas.isEnabled()) {
+            thumbnailAtlas = ThumbnailAtlas.open(dir, thumbnailSize);
+        }
+    }
+
+    /**
+     * Writes thumbnails queued for the current atlas. Blocks, so call it off the EDT.
+     */
+    void flushThumbnailAtlas() {
+        ThumbnailAtlas atlas = thumbnailAtlas;
+        if (atlas != null) {
+            atlas.flush();
+        }
+    }
+
     public File getCurrentDirectory() {
         return model.getCurrentDirectory();
     }
 
-    MouseAdapter createImageMouseListener() {
-        return new MouseAdapter() {
-            @Override
-            public void mouseClicked(MouseEvent e) {
-                JLabel clickedLabel = (JLabel) e.getSource();
-                File imgFile = (File) clickedLabel.getClientProperty("imageFile");
-                e.consume();
-
-                if (SwingUtilities.isRightMouseButton(e)) {
-                    if (!model.isSelected(clickedLabel)) {
-                        clearSelectionUI();
-                        addToSelectionUI(clickedLabel);
-                    }
-                    showImageOptions();
-                } else if (SwingUtilities.isLeftMouseButton(e)) {
-                    //directoryTreeManager.setSelectedDirectory(imgFile.getParentFile());
-                    previewPanelManager.showImagePreview(imgFile);
-                    statusPanelManager.updatePreviewFile(imgFile.getAbsolutePath());
-                    if (e.isControlDown() || e.isMetaDown()) {
-                        toggleSelectionUI(clickedLabel);
-                    } else {
-                        clearSelectionUI();
-                        addToSelectionUI(clickedLabel);
-                    }
-                }
+    @Override
+    public void itemClicked(ThumbnailItem clickedItem, MouseEvent e) {
+        File imgFile = clickedItem.getFile();
+        e.consume();
+
+        if (SwingUtilities.isRightMouseButton(e)) {
+            if (!model.isSelected(clickedItem)) {
+                clearSelectionUI();
+                addToSelectionUI(clickedItem);
             }
-        };
-    }
-
-    public void clearSelectionUI() {
-        for (JLabel label : model.getSelectedLabels()) {
-            if (isDuplicate((File) label.getClientProperty("imageFile"))) {
-                label.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
+            showImageOptions();
+        } else if (SwingUtilities.isLeftMouseButton(e)) {
+            //directoryTreeManager.setSelectedDirectory(imgFile.getParentFile());
+            previewPanelManager.showImagePreview(imgFile);
+            statusPanelManager.updatePreviewFile(imgFile.getAbsolutePath());
+            if (e.isControlDown() || e.isMetaDown()) {
+                toggleSelectionUI(clickedItem);
             } else {
-                label.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+                clearSelectionUI();
+                addToSelectionUI(clickedItem);
             }
         }
+    }
+
+    @Override
+    public boolean isSelected(ThumbnailItem item) {
+        return model.isSelected(item);
+    }
+
+    public void clearSelectionUI() {
         model.clearSelection();
+        imagePanelManager.getImagePanel().repaint();
         updateSelectionStatus();
     }
 
-    public void addToSelectionUI(JLabel label) {
-        model.addToSelection(label);
-        label.setBorder(BorderFactory.createLineBorder(UIManager.getColor("Component.focusedBorderColor"), 2));
-        updateSelectionStatus();
+    public void addToSelectionUI(ThumbnailItem item) {
+        addToSelectionUI(List.of(item));
     }
 
-    private void toggleSelectionUI(JLabel label) {
-        if (model.isSelected(label)) {
-            model.removeFromSelection(label);
-            if (isDuplicate((File) label.getClientProperty("imageFile"))) {
-                label.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
-            } else {
-                label.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+    @Override
+    public void addToSelectionUI(Collection<ThumbnailItem> items) {
+        boolean changed = false;
+        for (ThumbnailItem item : items) {
+            if (!model.isSelected(item)) {
+                model.addToSelection(item);
+                imagePanelManager.getImagePanel().itemChanged(item);
+                changed = true;
             }
+        }
+        if (changed) {
+            updateSelectionStatus();
+        }
+    }
+
+    private void toggleSelectionUI(ThumbnailItem item) {
+        if (model.isSelected(item)) {
+            model.removeFromSelection(item);
         } else {
-            model.addToSelection(label);
-            label.setBorder(BorderFactory.createLineBorder(UIManager.getColor("Component.focusedBorderColor"), 2));
+            model.addToSelection(item);
         }
+        imagePanelManager.getImagePanel().itemChanged(item);
         updateSelectionStatus();
     }
 
     private void updateSelectionStatus() {
-        statusPanelManager.updateSelectionCount(model.getSelectedLabels().size());
+        statusPanelManager.updateSelectionCount(model.getSelectedItems().size());
         long totalSize = 0;
-        for (JLabel label : model.getSelectedLabels()) {
-            File file = (File) label.getClientProperty("imageFile");
-            totalSize += file.length();
+        for (ThumbnailItem item : model.getSelectedItems()) {
+            totalSize += item.getFile().length();
         }
         statusPanelManager.updateSelectionSize(totalSize);
     }
 
-    ImageIcon createDisplayIcon(File imgFile, int maxWidth, int maxHeight) throws IOException {
-        String cacheKey = imgFile.getAbsolutePath() + "_" + imgFile.lastModified() + "_" + maxWidth + "x" + maxHeight;
-        ImageIcon cachedIcon = thumbnailCache.get(cacheKey);
-        if (cachedIcon != null) {
-            return cachedIcon;
-        }
-
-        BufferedImage originalImage = ImageIO.read(imgFile);
-        if (originalImage == null) {
-            originalImage = new BufferedImage(maxWidth, maxHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = originalImage.createGraphics();
-            g2d.setFont(new Font("Serif", Font.BOLD, 24));
-            g2d.setColor(Color.RED);
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2d.drawString("Failed", 0, maxHeight/2);
-            System.out.println("Unsupported image format: " + imgFile.getName());
-            g2d.dispose();
-        }
-
-        int imgWidth = originalImage.getWidth();
-        int imgHeight = originalImage.getHeight();
-
-        ImageIcon icon;
-        if (maxWidth >= imgWidth && maxHeight >= imgHeight) {
-            icon = new ImageIcon(originalImage);
-        } else {
-            double scale = Math.min((double) maxWidth / imgWidth, (double) maxHeight / imgHeight);
-            int newWidth = (int) (imgWidth * scale);
-            int newHeight = (int) (imgHeight * scale);
-
-            // Ensure dimensions are at least 1x1 to prevent exceptions when creating the image
-            newWidth = Math.max(1, newWidth);
-            newHeight = Math.max(1, newHeight);
+    /**
+     * Returns a thumbnail from the directory's atlas or the cached pyramid levels, never
+     * decoding, so it only waits on reads.
+     *
+     * @return The icon, or null if the image has to be decoded.
+     */
+    ImageIcon findCachedDisplayIcon(File imgFile, int maxWidth, int maxHeight) {
+        ThumbnailAtlas atlas = thumbnailAtlas;
+        boolean useAtlas = atlas != null && atlas.covers(imgFile, maxWidth, maxHeight);
+        if (useAtlas) {
+            BufferedImage atlasImage = atlas.get(imgFile);
+            if (atlasImage != null) {
+                return new ImageIcon(atlasImage);
+            }
+        }
+        BufferedImage cached = thumbnailPyramid.getCachedThumbnail(imgFile, maxWidth, maxHeight);
+        if (cached == null) {
+            return null;
+        }
+        if (useAtlas) {
+            atlas.add(imgFile, cached);
+        }
+        return new ImageIcon(cached);
+    }
 
-            BufferedImage scaledImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = scaledImage.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.drawImage(originalImage, 0, 0, newWidth, newHeight, null);
-            g2d.dispose();
-            icon = new ImageIcon(scaledImage);
+    ImageIcon createDisplayIcon(File imgFile, int maxWidth, int maxHeight) throws IOException {
+        // The directory's atlas serves the whole grid from one mapping, before any disk cache read
+        ThumbnailAtlas atlas = thumbnailAtlas;
+        boolean useAtlas = atlas != null && atlas.covers(imgFile, maxWidth, maxHeight);
+        if (useAtlas) {
+            BufferedImage atlasImage = atlas.get(imgFile);
+            if (atlasImage != null) {
+                return new ImageIcon(atlasImage);
+            }
         }
 
-        thumbnailCache.put(cacheKey, icon);
-        return icon;
+        // Scaled from the nearest cached pyramid level, decoding the original only if there is none
+        BufferedImage thumbnailImage = thumbnailPyramid.getThumbnail(imgFile, maxWidth, maxHeight);
+        if (useAtlas) {
+            atlas.add(imgFile, thumbnailImage);
+        }
+        return new ImageIcon(thumbnailImage);
     }
 
-    private class ThumbnailResizer extends SwingWorker<Void, JLabel> {
+    private class ThumbnailResizer extends SwingWorker<Void, ThumbnailItem> {
         private final int newSize;
+        private final List<ThumbnailItem> items;
 
         ThumbnailResizer(int newSize) {
             this.newSize = newSize;
+            // Taken on the EDT, which owns the grid's item list
+            this.items = new ArrayList<>(imagePanelManager.getImagePanel().getItems());
         }
 
         @Override
         protected Void doInBackground() throws Exception {
-            Component[] components = imagePanelManager.getImagePanel().getComponents();
-            for (Component com : components) {
+            for (ThumbnailItem item : items) {
                 if (isCancelled()) break;
 
-                if (com instanceof JLabel) {
-                    JLabel label = (JLabel) com;
-                    try {
-                        ImageIcon newIcon = createDisplayIcon((File) label.getClientProperty("imageFile"), newSize, newSize);
-                        if (newIcon == null) return null;
-                        label.setIcon(newIcon);
-                        label.setPreferredSize(new Dimension(newSize + 8, newSize + 40));
-                        publish(label);
-                    } catch (ClosedByInterruptException e) {
-                        // This is expected if the resize operation is cancelled by the user.
-                        // We can safely ignore it and let the worker thread terminate.
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        System.err.println("Failed to resize thumbnail: " + e.getMessage());
-                    }
+                try {
+                    ImageIcon newIcon = createDisplayIcon(item.getFile(), newSize, newSize);
+                    if (newIcon == null) return null;
+                    item.setIcon(newIcon);
+                    publish(item);
+                } catch (ClosedByInterruptException e) {
+                    // This is expected if the resize operation is cancelled by the user.
+                    // We can safely ignore it and let the worker thread terminate.
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.err.println("Failed to resize thumbnail: " + e.getMessage());
                 }
             }
             return null;
         }
 
         @Override
-        protected void done() {
-            // Re-layout the panel once all icons are resized
-            imagePanelManager.getImagePanel().revalidate();
-            imagePanelManager.getImagePanel().repaint();
+        protected void process(List<ThumbnailItem> chunks) {
+            for (ThumbnailItem item : chunks) {
+                imagePanelManager.getImagePanel().itemChanged(item);
+            }
         }
     }
 
@@ -749,6 +984,13 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
             resizerWorker.cancel(true);
         }
 
+        // The slider passes through many sizes; the atlas is rebuilt at the new size on the next folder load
+        ThumbnailAtlas atlas = thumbnailAtlas;
+        thumbnailAtlas = null;
+        if (atlas != null) {
+            atlas.flushAsync();
+        }
+
         // Start a new resize worker
         int newSize = imagePanelManager.getThumbnailSize();
         resizerWorker = new ThumbnailResizer(newSize);
@@ -756,11 +998,11 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
     }
 
     private void showImageOptions() {
-        if (model.getSelectedLabels().isEmpty()) {
+        if (model.getSelectedItems().isEmpty()) {
             return;
         }
 
-        List<JLabel> selectedLabels = new ArrayList<>(model.getSelectedLabels());
+        List<ThumbnailItem> selectedItems = new ArrayList<>(model.getSelectedItems());
 
         JPopupMenu menu = new JPopupMenu();
         JMenuItem renameItem = new JMenuItem("Rename");
@@ -771,27 +1013,27 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         JMenuItem manageKeywordsItem = new JMenuItem("Manage Keywords");
         JMenuItem findDuplicatesItem = new JMenuItem("Find Duplicates");
 
-        renameItem.setEnabled(selectedLabels.size() == 1);
-        moveItem.setEnabled(!selectedLabels.isEmpty());
-        copyItem.setEnabled(!selectedLabels.isEmpty());
-        deleteItem.setEnabled(!selectedLabels.isEmpty());
-        copyPathItem.setEnabled(!selectedLabels.isEmpty());
-        manageKeywordsItem.setEnabled(!selectedLabels.isEmpty());
-        findDuplicatesItem.setEnabled(selectedLabels.size() == 1);
+        renameItem.setEnabled(selectedItems.size() == 1);
+        moveItem.setEnabled(!selectedItems.isEmpty());
+        copyItem.setEnabled(!selectedItems.isEmpty());
+        deleteItem.setEnabled(!selectedItems.isEmpty());
+        copyPathItem.setEnabled(!selectedItems.isEmpty());
+        manageKeywordsItem.setEnabled(!selectedItems.isEmpty());
+        findDuplicatesItem.setEnabled(selectedItems.size() == 1);
 
-        renameItem.addActionListener(e -> handleRenameImage(selectedLabels.get(0)));
-        moveItem.addActionListener(e -> handleMoveImages(selectedLabels));
-        copyItem.addActionListener(e -> handleCopyImages(selectedLabels));
-        deleteItem.addActionListener(e -> handleDeleteImages(selectedLabels));
+        renameItem.addActionListener(e -> handleRenameImage(selectedItems.get(0)));
+        moveItem.addActionListener(e -> handleMoveImages(selectedItems));
+        copyItem.addActionListener(e -> handleCopyImages(selectedItems));
+        deleteItem.addActionListener(e -> handleDeleteImages(selectedItems));
 
         copyPathItem.addActionListener(e -> {
-            File firstSelectedFile = (File) selectedLabels.get(0).getClientProperty("imageFile");
+            File firstSelectedFile = selectedItems.get(0).getFile();
             StringSelection selection = new StringSelection(firstSelectedFile.getAbsolutePath());
             Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, null);
         });
 
-        manageKeywordsItem.addActionListener(e -> handleManageKeywords(selectedLabels));
-        findDuplicatesItem.addActionListener(e -> handleFindDuplicates(selectedLabels.get(0)));
+        manageKeywordsItem.addActionListener(e -> handleManageKeywords(selectedItems));
+        findDuplicatesItem.addActionListener(e -> handleFindDuplicates(selectedItems.get(0)));
 
         menu.add(renameItem);
         menu.add(moveItem);
@@ -802,10 +1044,10 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         menu.add(manageKeywordsItem);
         menu.add(findDuplicatesItem);
 
-        File firstSelectedFile = (File) selectedLabels.get(0).getClientProperty("imageFile");
+        File firstSelectedFile = selectedItems.get(0).getFile();
         if (firstSelectedFile.getName().toLowerCase().endsWith(".webp")) {
             JMenuItem convertToJpegItem = new JMenuItem("Convert to JPEG");
-            convertToJpegItem.addActionListener(e -> handleConvertToJpeg(selectedLabels.get(0)));
+            convertToJpegItem.addActionListener(e -> handleConvertToJpeg(selectedItems.get(0)));
             menu.add(convertToJpegItem);
         }
 
@@ -832,8 +1074,8 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         }
     }
 
-    private void handleFindDuplicates(JLabel label) {
-        File imageFile = (File) label.getClientProperty("imageFile");
+    private void handleFindDuplicates(ThumbnailItem item) {
+        File imageFile = item.getFile();
         new SwingWorker<List<File>, Void>() {
             @Override
             protected List<File> doInBackground() throws Exception {
@@ -871,16 +1113,14 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
 
                     for (File file : duplicates) {
                         try {
-                            JLabel newLabel = createImageLabel(file, imagePanelManager.getThumbnailSize());
-                            if (newLabel != null) {
-                                imagePanelManager.addImageLabel(newLabel);
+                            ThumbnailItem newItem = createImageItem(file, imagePanelManager.getThumbnailSize());
+                            if (newItem != null) {
+                                imagePanelManager.addImageItem(newItem);
                             }
                         } catch (IOException e) {
                             System.err.println("Could not create thumbnail for duplicate file: " + e.getMessage());
                         }
                     }
-                    imagePanelManager.getImagePanel().revalidate();
-                    imagePanelManager.getImagePanel().repaint();
 
                 } catch (InterruptedException | ExecutionException e) {
                     JOptionPane.showMessageDialog(PhotoShelfUI.this, "Error finding duplicates: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -889,8 +1129,8 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         }.execute();
     }
 
-    private void handleConvertToJpeg(JLabel label) {
-        File webpFile = (File) label.getClientProperty("imageFile");
+    private void handleConvertToJpeg(ThumbnailItem item) {
+        File webpFile = item.getFile();
         try {
             BufferedImage image = ImageIO.read(webpFile);
             if (image == null) {
@@ -919,25 +1159,24 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         }
     }
 
-    private void handleManageKeywords(List<JLabel> labels) {
-        if (labels.isEmpty()) {
+    private void handleManageKeywords(List<ThumbnailItem> items) {
+        if (items.isEmpty()) {
             return;
         }
 
-        List<File> files = labels.stream()
-                .map(label -> (File) label.getClientProperty("imageFile"))
+        List<File> files = items.stream()
+                .map(ThumbnailItem::getFile)
                 .collect(Collectors.toList());
 
         KeywordManagementDialog dialog = new KeywordManagementDialog(this, keywordManager, files);
         dialog.setVisible(true);
     }
 
-    private void handleRenameImage(JLabel labelToRename) {
-        File imgFile = (File) labelToRename.getClientProperty("imageFile");
+    private void handleRenameImage(ThumbnailItem itemToRename) {
+        File imgFile = itemToRename.getFile();
         String newName = JOptionPane.showInputDialog(this, "Enter new name:", imgFile.getName());
         if (newName != null && !newName.trim().isEmpty()) {
             if (model.renameImage(imgFile, newName)) {
-                thumbnailCache.remove(imgFile.getAbsolutePath() + "_" + imgFile.lastModified() + "_" + imagePanelManager.getThumbnailSize() + "x" + imagePanelManager.getThumbnailSize());
                 displayImages(model.getCurrentDirectory());
             } else {
                 JOptionPane.showMessageDialog(this, "Rename failed.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -945,37 +1184,36 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
         }
     }
 
-    private void handleMoveImages(List<JLabel> labelsToMove) {
+    private void handleMoveImages(List<ThumbnailItem> itemsToMove) {
         File destDir = getDestinationDirectoryFromUser();
         if (destDir == null) return;
 
-        JPanel imagePanel = imagePanelManager.getImagePanel();
-        for (JLabel label : labelsToMove) {
-            File imgFile = (File) label.getClientProperty("imageFile");
+        ThumbnailGrid imagePanel = imagePanelManager.getImagePanel();
+        List<ThumbnailItem> moved = new ArrayList<>();
+        for (ThumbnailItem item : itemsToMove) {
+            File imgFile = item.getFile();
             File destFile = getDestinationFileWithPrompt(destDir, imgFile.getName());
             if (destFile == null) continue;
             try {
                 model.moveImage(imgFile, destFile);
-                imagePanel.remove(label);
-                thumbnailCache.remove(imgFile.getAbsolutePath() + "_" + imgFile.lastModified() + "_" + imagePanelManager.getThumbnailSize() + "x" + imagePanelManager.getThumbnailSize());
+                moved.add(item);
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(this, "Move failed for " + imgFile.getName() + ": " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
 
         clearSelectionUI();
-        imagePanel.revalidate();
-        imagePanel.repaint();
-        statusPanelManager.updateTotalFiles(imagePanel.getComponentCount());
+        imagePanel.removeItems(moved);
+        statusPanelManager.updateTotalFiles(imagePanel.getItemCount());
     }
 
-    private void handleCopyImages(List<JLabel> labelsToCopy) {
+    private void handleCopyImages(List<ThumbnailItem> itemsToCopy) {
         File destDir = getDestinationDirectoryFromUser();
         if (destDir == null) return;
 
         int successCount = 0;
-        for (JLabel label : labelsToCopy) {
-            File imgFile = (File) label.getClientProperty("imageFile");
+        for (ThumbnailItem item : itemsToCopy) {
+            File imgFile = item.getFile();
             File destFile = getDestinationFileWithPrompt(destDir, imgFile.getName());
             if (destFile == null) continue;
             try {
@@ -985,32 +1223,31 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
                 JOptionPane.showMessageDialog(this, "Copy failed for " + imgFile.getName() + ": " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
-        JOptionPane.showMessageDialog(this, "Copied " + successCount + " of " + labelsToCopy.size() + " files to " + destDir.getAbsolutePath(), "Copy Complete", JOptionPane.INFORMATION_MESSAGE);
+        JOptionPane.showMessageDialog(this, "Copied " + successCount + " of " + itemsToCopy.size() + " files to " + destDir.getAbsolutePath(), "Copy Complete", JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private void handleDeleteImages(List<JLabel> labelsToDelete) {
-        String message = labelsToDelete.size() == 1
-                ? "Are you sure you want to permanently delete this file?\n" + ((File) labelsToDelete.get(0).getClientProperty("imageFile")).getName()
-                : "Are you sure you want to permanently delete these " + labelsToDelete.size() + " files?";
+    private void handleDeleteImages(List<ThumbnailItem> itemsToDelete) {
+        String message = itemsToDelete.size() == 1
+                ? "Are you sure you want to permanently delete this file?\n" + itemsToDelete.get(0).getFile().getName()
+                : "Are you sure you want to permanently delete these " + itemsToDelete.size() + " files?";
 
         int result = JOptionPane.showConfirmDialog(this, message, "Confirm Deletion", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
 
         if (result == JOptionPane.YES_OPTION) {
-            JPanel imagePanel = imagePanelManager.getImagePanel();
-            for (JLabel label : labelsToDelete) {
-                File imgFile = (File) label.getClientProperty("imageFile");
+            ThumbnailGrid imagePanel = imagePanelManager.getImagePanel();
+            List<ThumbnailItem> deleted = new ArrayList<>();
+            for (ThumbnailItem item : itemsToDelete) {
+                File imgFile = item.getFile();
                 try {
                     model.deleteImage(imgFile);
-                    imagePanel.remove(label);
-                    thumbnailCache.remove(imgFile.getAbsolutePath() + "_" + imgFile.lastModified() + "_" + imagePanelManager.getThumbnailSize() + "x" + imagePanelManager.getThumbnailSize());
+                    deleted.add(item);
                 } catch (IOException ex) {
                     JOptionPane.showMessageDialog(this, "Delete failed for " + imgFile.getName() + ": " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
             clearSelectionUI();
-            imagePanel.revalidate();
-            imagePanel.repaint();
-            statusPanelManager.updateTotalFiles(imagePanel.getComponentCount());
+            imagePanel.removeItems(deleted);
+            statusPanelManager.updateTotalFiles(imagePanel.getItemCount());
         }
     }
 
@@ -1084,6 +1321,7 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
 
         imagePanelManager.clearImagePanel();
         clearSelectionUI();
+        gridDirectory = null;
     }
 
     public void setSearchStatus(String status) {
@@ -1120,13 +1358,13 @@ public class PhotoShelfUI extends JFrame implements SelectionCallback, PluginSta
     }
     
     public List<File> getSelectedFiles() {
-        return model.getSelectedLabels().stream()
-                .map(label -> (File) label.getClientProperty("imageFile"))
+        return model.getSelectedItems().stream()
+                .map(ThumbnailItem::getFile)
                 .collect(Collectors.toList());
     }
     
-    public Set<JLabel> getSelectedLabels() {
-        return new HashSet<>(model.getSelectedLabels());
+    public Set<ThumbnailItem> getSelectedItems() {
+        return new LinkedHashSet<>(model.getSelectedItems());
     }
     
     public PreviewPanelManager getPreviewPanelManager() {
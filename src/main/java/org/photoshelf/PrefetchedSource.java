@@ -0,0 +1,107 @@
+package org.photoshelf;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.Supplier;
+
+/**
+ * The bytes of a source file, read ahead on an I/O thread so that its decode, on a decode
+ * thread, does not wait on the disk.
+ * <p>
+ * The bytes are made available to a piece of work with {@link #use}; while it runs, any
+ * decode of the same file on that thread through {@link #openStream} reads from memory.
+ */
+public final class PrefetchedSource {
+    private static final ThreadLocal<PrefetchedSource> CURRENT = new ThreadLocal<>();
+
+    private final File file;
+    private final byte[] bytes;
+
+    private PrefetchedSource(File file, byte[] bytes) {
+        this.file = file;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Reads a whole file into memory.
+     */
+    public static PrefetchedSource read(File file) throws IOException {
+        return new PrefetchedSource(file, Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Runs work with this source available to {@link #openStream} on the current thread.
+     */
+    public <T> T use(Supplier<T> work) {
+        PrefetchedSource previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return work.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Opens an image stream on a file, from memory if its bytes were read ahead for the
+     * current work.
+     *
+     * @return The stream, or null if the file cannot be opened.
+     */
+    public static ImageInputStream openStream(File file) throws IOException {
+        PrefetchedSource source = CURRENT.get();
+        if (source != null && source.file.equals(file)) {
+            return new ByteArrayImageInputStream(source.bytes);
+        }
+        return ImageIO.createImageInputStream(file);
+    }
+
+    public int getLength() {
+        return bytes.length;
+    }
+
+    /**
+     * Reads straight from the array, where ImageIO's own streams would copy it into a cache.
+     */
+    private static final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+        private final byte[] bytes;
+
+        ByteArrayImageInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            return streamPos < bytes.length ? bytes[(int) streamPos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= bytes.length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, bytes.length - streamPos);
+            System.arraycopy(bytes, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+    }
+}
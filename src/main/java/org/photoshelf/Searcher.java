@@ -2,6 +2,7 @@ package org.photoshelf;
 
 import org.photoshelf.service.PluginManager;
 import org.photoshelf.ui.ImagePanelManager;
+import org.photoshelf.ui.ThumbnailItem;
 
 import javax.swing.*;
 import java.awt.*;
@@ -14,7 +15,7 @@ import java.util.*;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class Searcher extends SwingWorker<Void, JLabel> {
+public class Searcher extends SwingWorker<Void, ThumbnailItem> {
     private final File searchRoot;
     private final PhotoShelfUI mainApp;
     private final AtomicInteger filesFound = new AtomicInteger(0);
@@ -131,13 +132,13 @@ public class Searcher extends SwingWorker<Void, JLabel> {
         for (File file : foundFiles) {
             if (isCancelled()) break;
             filesFound.incrementAndGet();
-            publish(createImageLabel(file));
+            publish(createImageItem(file));
         }
 
         return null;
     }
 
-    private JLabel createImageLabel(File imgFile) throws IOException {
+    private ThumbnailItem createImageItem(File imgFile) throws IOException {
         ImagePanelManager imagePanelManager = mainApp.getImagePanelManager();
         int thumbnailSize = imagePanelManager.getThumbnailSize();
         
@@ -168,18 +169,7 @@ public class Searcher extends SwingWorker<Void, JLabel> {
             icon = mainApp.createDisplayIcon(imgFile, thumbnailSize, thumbnailSize);
         }
 
-        String name = imgFile.getName();
-        String shortName = name.length() > 20 ? name.substring(0, 17) + "..." : name;
-        JLabel label = new JLabel(shortName, icon, JLabel.CENTER);
-        label.setHorizontalTextPosition(JLabel.CENTER);
-        label.setVerticalTextPosition(JLabel.BOTTOM);
-        label.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
-        label.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-        label.putClientProperty("imageFile", imgFile);
-        label.setPreferredSize(new java.awt.Dimension(thumbnailSize + 8, thumbnailSize + 40));
-        label.setAlignmentX(Component.LEFT_ALIGNMENT);
-        label.addMouseListener(mainApp.createImageMouseListener());
-        return label;
+        return new ThumbnailItem(imgFile, icon);
     }
 
     private boolean isSupported(String fileName, Set<String> supportedExtensions) {
@@ -192,11 +182,11 @@ public class Searcher extends SwingWorker<Void, JLabel> {
     }
 
     @Override
-    protected void process(List<JLabel> chunks) {
+    protected void process(List<ThumbnailItem> chunks) {
         ImagePanelManager imagePanelManager = mainApp.getImagePanelManager();
-        for (JLabel label : chunks) {
+        for (ThumbnailItem item : chunks) {
             if (isCancelled()) break;
-            imagePanelManager.addImageLabel(label);
+            imagePanelManager.addImageItem(item);
         }
         mainApp.updateTotalFile(filesFound.get());
     }
@@ -1,8 +1,12 @@
 package org.photoshelf;
 
+import org.photoshelf.cache.CacheStats;
+import org.photoshelf.cache.LatencyHistogram;
+
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.util.concurrent.TimeUnit;
 
 public class StatusPanelManager {
     private final JPanel statusPanel;
@@ -11,6 +15,8 @@ public class StatusPanelManager {
     private final JLabel selectionCountLabel;
     private final JLabel selectionSizeLabel;
     private final JLabel searchStatusLabel;
+    private final JLabel cacheStatsLabel;
+    private final JLabel loadStatsLabel;
 
     public StatusPanelManager() {
         statusPanel = new JPanel(new BorderLayout());
@@ -24,6 +30,8 @@ public class StatusPanelManager {
         selectionCountLabel = new JLabel("Selected: 0");
         selectionSizeLabel = new JLabel("Size: 0 KB");
         searchStatusLabel = new JLabel();
+        cacheStatsLabel = new JLabel();
+        loadStatsLabel = new JLabel();
 
         JPanel leftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 20, 0));
         leftPanel.add(totalFilesLabel);
@@ -35,6 +43,8 @@ public class StatusPanelManager {
         JPanel rightPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 20, 0));
         rightPanel.add(selectionCountLabel);
         rightPanel.add(selectionSizeLabel);
+        rightPanel.add(cacheStatsLabel);
+        rightPanel.add(loadStatsLabel);
 
         statusPanel.add(leftPanel, BorderLayout.WEST);
         statusPanel.add(centerPanel, BorderLayout.CENTER);
@@ -69,4 +79,44 @@ public class StatusPanelManager {
     public void setSearchStatus(String status) {
         searchStatusLabel.setText(status);
     }
+
+    public void updateCacheStats(CacheStats stats) {
+        long requests = stats.getRequests();
+        if (requests == 0) {
+            cacheStatsLabel.setText("Cache: -");
+        } else {
+            cacheStatsLabel.setText(String.format("Cache: %.0f%% hits, %,d/%,d MB",
+                    stats.getHitRatio() * 100, stats.getMemoryWeight() / (1024 * 1024),
+                    stats.getMemoryMaximumWeight() / (1024 * 1024)));
+        }
+        cacheStatsLabel.setToolTipText(String.format("<html>Memory: %,d hits, %,d entries<br>"
+                        + "Off-heap: %,d hits, %,d of %,d MB<br>"
+                        + "Disk: %,d hits, %,d entries, %,d MB, read mean %,d us, p99 %,d us<br>"
+                        + "Misses: %,d, evictions: %,d<br>"
+                        + "Write queue: %,d pending, %,d coalesced, %,d dropped</html>",
+                stats.getMemoryHits(), stats.getMemoryEntries(),
+                stats.getOffHeapHits(), stats.getOffHeapUsedBytes() / (1024 * 1024), stats.getOffHeapCapacity() / (1024 * 1024),
+                stats.getDiskHits(), stats.getDiskEntries(), stats.getDiskBytes() / (1024 * 1024),
+                stats.getDiskReadMeanNanos() / 1000, stats.getDiskReadP99Nanos() / 1000,
+                stats.getMisses(), stats.getEvictions(),
+                stats.getWriteQueueDepth(), stats.getWritesCoalesced(), stats.getWritesDropped()));
+    }
+
+    /**
+     * @param firstVisible The time from starting each load to its first thumbnail on screen.
+     */
+    public void updateLoadStats(LatencyHistogram firstVisible) {
+        long loads = firstVisible.count();
+        if (loads == 0) {
+            loadStatsLabel.setText("First thumbnail: -");
+        } else {
+            loadStatsLabel.setText(String.format("First thumbnail: %,d ms",
+                    TimeUnit.NANOSECONDS.toMillis(firstVisible.percentileNanos(50))));
+        }
+        loadStatsLabel.setToolTipText(String.format("<html>Time to first thumbnail over %,d loads<br>"
+                        + "Mean %,d ms, median %,d ms, p99 %,d ms</html>",
+                loads, TimeUnit.NANOSECONDS.toMillis(firstVisible.meanNanos()),
+                TimeUnit.NANOSECONDS.toMillis(firstVisible.percentileNanos(50)),
+                TimeUnit.NANOSECONDS.toMillis(firstVisible.percentileNanos(99))));
+    }
 }
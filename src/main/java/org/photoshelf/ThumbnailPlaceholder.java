@@ -0,0 +1,121 @@
+package org.photoshelf;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+/**
+ * A blurred stand-in for a thumbnail, small enough to keep in the catalog next to the
+ * perceptual hash and to load for a whole directory in one query.
+ * <p>
+ * An image is reduced to the average colours of a 4x3 grid (3x4 for portraits, 3x3 for
+ * squares) plus its aspect ratio, at most 40 bytes:
+ * <pre>
+ * placeholder := byte columns, byte rows, short aspect (width / height * 1000), byte rgb[columns * rows * 3]
+ * </pre>
+ * Painting stretches the grid to the thumbnail's size with bilinear filtering, which gives
+ * a soft gradient with the layout and colours of the picture.
+ */
+public final class ThumbnailPlaceholder {
+    /** Samples averaged per grid cell along each axis. */
+    private static final int SAMPLES = 8;
+
+    private ThumbnailPlaceholder() {
+    }
+
+    /**
+     * @param image The image to summarize, at any resolution.
+     * @return The encoded placeholder.
+     */
+    public static byte[] encode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double aspect = (double) width / height;
+        int columns = aspect > 1.15 ? 4 : 3;
+        int rows = aspect < 0.87 ? 4 : 3;
+
+        byte[] encoded = new byte[4 + columns * rows * 3];
+        encoded[0] = (byte) columns;
+        encoded[1] = (byte) rows;
+        int aspectMillis = (int) Math.min(0xFFFF, Math.round(aspect * 1000));
+        encoded[2] = (byte) (aspectMillis >> 8);
+        encoded[3] = (byte) aspectMillis;
+
+        // Averages a fixed grid of samples per cell, so the cost does not grow with the image
+        int index = 4;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                long red = 0;
+                long green = 0;
+                long blue = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    int y = (int) ((row + (sy + 0.5) / SAMPLES) * height / rows);
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        int x = (int) ((column + (sx + 0.5) / SAMPLES) * width / columns);
+                        int rgb = image.getRGB(Math.min(x, width - 1), Math.min(y, height - 1));
+                        red += (rgb >> 16) & 0xFF;
+                        green += (rgb >> 8) & 0xFF;
+                        blue += rgb & 0xFF;
+                    }
+                }
+                int count = SAMPLES * SAMPLES;
+                encoded[index++] = (byte) (red / count);
+                encoded[index++] = (byte) (green / count);
+                encoded[index++] = (byte) (blue / count);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Decodes the colour grid of a placeholder. Stretched to the size from {@link #fit}
+     * with bilinear filtering, it gives the blurred stand-in; painting it that way at draw
+     * time means a placeholder never needs a thumbnail-sized image.
+     *
+     * @param placeholder The encoded placeholder.
+     * @return The grid, one pixel per cell, or null if the bytes are not a placeholder.
+     */
+    public static BufferedImage decodeGrid(byte[] placeholder) {
+        if (!isValid(placeholder)) {
+            return null;
+        }
+        int columns = placeholder[0];
+        int rows = placeholder[1];
+        BufferedImage grid = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_RGB);
+        int index = 4;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int rgb = (placeholder[index] & 0xFF) << 16 | (placeholder[index + 1] & 0xFF) << 8 | (placeholder[index + 2] & 0xFF);
+                grid.setRGB(column, row, rgb);
+                index += 3;
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @param placeholder The encoded placeholder.
+     * @param maxWidth    The maximum width of the thumbnail.
+     * @param maxHeight   The maximum height of the thumbnail.
+     * @return The size the thumbnail would have within the bounds, or null if the bytes are not a placeholder.
+     */
+    public static Dimension fit(byte[] placeholder, int maxWidth, int maxHeight) {
+        if (!isValid(placeholder)) {
+            return null;
+        }
+        int aspectMillis = ((placeholder[2] & 0xFF) << 8) | (placeholder[3] & 0xFF);
+        double aspect = aspectMillis / 1000.0;
+        int width = Math.max(1, (int) Math.min(maxWidth, maxHeight * aspect));
+        int height = Math.max(1, (int) Math.min(maxHeight, maxWidth / aspect));
+        return new Dimension(width, height);
+    }
+
+    private static boolean isValid(byte[] placeholder) {
+        if (placeholder == null || placeholder.length < 4) {
+            return false;
+        }
+        int columns = placeholder[0];
+        int rows = placeholder[1];
+        int aspectMillis = ((placeholder[2] & 0xFF) << 8) | (placeholder[3] & 0xFF);
+        return columns > 0 && rows > 0 && aspectMillis != 0 && placeholder.length == 4 + columns * rows * 3;
+    }
+}
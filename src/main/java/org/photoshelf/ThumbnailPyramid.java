@@ -0,0 +1,283 @@
+package org.photoshelf;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Produces thumbnails of any size from a few cached canonical levels.
+ * <p>
+ * An original is decoded once and scaled down to every level in {@link #LEVELS}, each from
+ * the next larger one. A requested size is then served by downscaling the smallest level
+ * that is at least as large, so changing the thumbnail size only costs in-memory scaling.
+ * The level being served is kept in memory; the other levels only go to disk. Sizes above
+ * the largest level are scaled straight from the original and not cached.
+ * <p>
+ * Levels are loaded through {@link HybridCache#getOrLoad}, so concurrent requests for the
+ * same image, from the grid, a search and a resize for example, share a single decode.
+ * A level missing from the cache is first looked up in the desktop's shared thumbnail
+ * cache (see {@link FreedesktopThumbnails}), and the original is only decoded if that has
+ * no valid thumbnail large enough.
+ * <p>
+ * For JPEGs, the previews embedded by the camera are tried before decoding the original
+ * (see {@link EmbeddedThumbnails}). One that is large enough for the requested size but
+ * not for its level is shown without being cached, so the level is only decoded when a
+ * size that needs its quality is requested. A preview that covers the largest level,
+ * as Multi-Picture previews usually do, replaces the original for building all levels.
+ * <p>
+ * Originals are decoded with source subsampling (see {@link #readSubsampled}), so the
+ * reader produces a raster of about twice the largest level instead of the full resolution,
+ * or down to the level itself when the {@link DecodeGovernor} is short of memory. If the
+ * source was read ahead into a {@link PrefetchedSource}, it is decoded from memory.
+ * <p>
+ * Levels are keyed by the file's content fingerprint (see {@link FingerprintManager}), so a
+ * moved or renamed file keeps its thumbnails and byte-identical copies share them.
+ */
+public class ThumbnailPyramid {
+    /** The canonical level sizes, smallest first. */
+    public static final int[] LEVELS = {128, 256, 512};
+
+    /** Subsampled decodes keep this many source pixels per target pixel, leaving the rest to smooth scaling. */
+    private static final int OVERSAMPLING = 2;
+
+    private static final String KEY_PREFIX = "fp_";
+
+    private final HybridCache<String, ImageIcon> cache;
+    private final FreedesktopThumbnails sharedThumbnails;
+
+    public ThumbnailPyramid(HybridCache<String, ImageIcon> cache) {
+        this(cache, null);
+    }
+
+    /**
+     * @param cache            Holds the levels.
+     * @param sharedThumbnails The desktop's shared thumbnail cache to try before decoding, or null.
+     */
+    public ThumbnailPyramid(HybridCache<String, ImageIcon> cache, FreedesktopThumbnails sharedThumbnails) {
+        this.cache = cache;
+        this.sharedThumbnails = sharedThumbnails;
+    }
+
+    /**
+     * Returns a thumbnail of an image that fits within the given bounds.
+     *
+     * @param imgFile   The image file.
+     * @param maxWidth  The maximum width of the thumbnail.
+     * @param maxHeight The maximum height of the thumbnail.
+     * @return The thumbnail, or a placeholder if the image cannot be decoded.
+     * @throws IOException If the image cannot be read.
+     */
+    public BufferedImage getThumbnail(File imgFile, int maxWidth, int maxHeight) throws IOException {
+        int level = levelFor(maxWidth, maxHeight);
+        if (level < 0) {
+            return scale(decode(imgFile, maxWidth, maxHeight), maxWidth, maxHeight);
+        }
+
+        String keyPrefix = keyPrefix(imgFile);
+        ImageIcon levelIcon = cache.get(keyPrefix + level);
+        if (levelIcon == null) {
+            BufferedImage embedded = isJpeg(imgFile) ? EmbeddedThumbnails.find(imgFile, maxWidth, maxHeight) : null;
+            if (embedded != null && !EmbeddedThumbnails.covers(embedded.getWidth(), embedded.getHeight(), level, level)) {
+                return scale(embedded, maxWidth, maxHeight);
+            }
+            levelIcon = cache.load(keyPrefix + level, imgFile,
+                    key -> new ImageIcon(loadLevel(imgFile, keyPrefix, level, embedded)));
+        }
+        return scale(toBufferedImage(levelIcon), maxWidth, maxHeight);
+    }
+
+    /**
+     * Returns a thumbnail from the cached levels of a file, never decoding. Only reads the
+     * file to fingerprint it and the cache to find the level.
+     *
+     * @param imgFile   The image file.
+     * @param maxWidth  The maximum width of the thumbnail.
+     * @param maxHeight The maximum height of the thumbnail.
+     * @return The thumbnail, or null if the level is not cached.
+     */
+    public BufferedImage getCachedThumbnail(File imgFile, int maxWidth, int maxHeight) {
+        int level = levelFor(maxWidth, maxHeight);
+        if (level < 0) {
+            return null;
+        }
+        ImageIcon levelIcon = cache.get(keyPrefix(imgFile) + level);
+        return levelIcon == null ? null : scale(toBufferedImage(levelIcon), maxWidth, maxHeight);
+    }
+
+    /**
+     * Returns a thumbnail from the cached levels of a known fingerprint, never decoding.
+     *
+     * @param fingerprint The content fingerprint of the image.
+     * @param maxWidth    The maximum width of the thumbnail.
+     * @param maxHeight   The maximum height of the thumbnail.
+     * @return The thumbnail, or null if the level is not cached.
+     */
+    public BufferedImage getCachedThumbnail(String fingerprint, int maxWidth, int maxHeight) {
+        int level = levelFor(maxWidth, maxHeight);
+        if (level < 0) {
+            return null;
+        }
+        ImageIcon levelIcon = cache.get(KEY_PREFIX + fingerprint + "_L" + level);
+        return levelIcon == null ? null : scale(toBufferedImage(levelIcon), maxWidth, maxHeight);
+    }
+
+    /**
+     * @return The content fingerprint a cache key was made from, or null if it is not a level key.
+     */
+    public static String fingerprintOf(String key) {
+        if (!key.startsWith(KEY_PREFIX)) {
+            return null;
+        }
+        int end = key.lastIndexOf("_L");
+        return end > KEY_PREFIX.length() ? key.substring(KEY_PREFIX.length(), end) : null;
+    }
+
+    /**
+     * @return The smallest level that covers the bounds, or -1 if they exceed the largest level.
+     */
+    public static int levelFor(int maxWidth, int maxHeight) {
+        int size = Math.max(maxWidth, maxHeight);
+        for (int level : LEVELS) {
+            if (size <= level) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scales an image down to fit within the bounds, keeping its aspect ratio. Images that
+     * already fit are returned unchanged.
+     */
+    public static BufferedImage scale(BufferedImage image, int maxWidth, int maxHeight) {
+        int imgWidth = image.getWidth();
+        int imgHeight = image.getHeight();
+        if (maxWidth >= imgWidth && maxHeight >= imgHeight) {
+            return image;
+        }
+        double scale = Math.min((double) maxWidth / imgWidth, (double) maxHeight / imgHeight);
+
+        // Ensure dimensions are at least 1x1 to prevent exceptions when creating the image
+        int newWidth = Math.max(1, (int) (imgWidth * scale));
+        int newHeight = Math.max(1, (int) (imgHeight * scale));
+
+        BufferedImage scaledImage = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = scaledImage.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, newWidth, newHeight, null);
+        g2d.dispose();
+        return scaledImage;
+    }
+
+    /**
+     * Produces a level from a shared thumbnail if there is a valid one, then from an
+     * embedded preview that covers the level, and otherwise by decoding the original.
+     */
+    private BufferedImage loadLevel(File imgFile, String keyPrefix, int level, BufferedImage embedded) throws IOException {
+        if (sharedThumbnails != null) {
+            BufferedImage shared = sharedThumbnails.find(imgFile, level);
+            if (shared != null) {
+                return scale(shared, level, level);
+            }
+        }
+        if (embedded != null) {
+            int largest = LEVELS[LEVELS.length - 1];
+            if (EmbeddedThumbnails.covers(embedded.getWidth(), embedded.getHeight(), largest, largest)) {
+                return buildLevels(imgFile, keyPrefix, level, embedded);
+            }
+            return scale(embedded, level, level);
+        }
+        return buildLevels(imgFile, keyPrefix, level, null);
+    }
+
+    /**
+     * Scales the source, or the decoded original if there is none, to every level once,
+     * writes every other level to disk and returns the requested one for the caller to cache.
+     */
+    private BufferedImage buildLevels(File imgFile, String keyPrefix, int requestedLevel, BufferedImage source)
+            throws IOException {
+        int largest = LEVELS[LEVELS.length - 1];
+        BufferedImage original = source != null ? source : readSubsampled(imgFile, largest, largest);
+        boolean decoded = original != null;
+        BufferedImage image = decoded ? original : placeholder(imgFile, largest, largest);
+        BufferedImage requested = null;
+        // Largest first, so each level is scaled from the one above it
+        for (int i = LEVELS.length - 1; i >= 0; i--) {
+            int level = LEVELS[i];
+            image = scale(image, level, level);
+            if (decoded && sharedThumbnails != null) {
+                sharedThumbnails.store(imgFile, image, level);
+            }
+            if (level == requestedLevel) {
+                requested = image;
+            } else {
+                // Only needed if the size changes later, so the write may be dropped under pressure
+                cache.putToDisk(keyPrefix + level, new ImageIcon(image), imgFile, true);
+            }
+        }
+        return requested;
+    }
+
+    /**
+     * Decodes an image at a reduced resolution that is still at least {@link #OVERSAMPLING}
+     * times the size that fits the bounds, or just the size that fits them if memory is
+     * tight. The dimensions are read from the header first, and the reader then skips the
+     * source rows and columns that are not needed, so the full-resolution raster is never
+     * allocated.
+     *
+     * @return The decoded image, or null if no reader supports the file.
+     */
+    public static BufferedImage readSubsampled(File imgFile, int maxWidth, int maxHeight) throws IOException {
+        return DecodeGovernor.getInstance().read(imgFile, maxWidth * OVERSAMPLING, maxHeight * OVERSAMPLING,
+                maxWidth, maxHeight);
+    }
+
+    private static BufferedImage decode(File imgFile, int width, int height) throws IOException {
+        BufferedImage originalImage = readSubsampled(imgFile, width, height);
+        return originalImage != null ? originalImage : placeholder(imgFile, width, height);
+    }
+
+    private static BufferedImage placeholder(File imgFile, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setFont(new Font("Serif", Font.BOLD, 24));
+        g2d.setColor(Color.RED);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.drawString("Failed", 0, height / 2);
+        System.out.println("Unsupported image format: " + imgFile.getName());
+        g2d.dispose();
+        return image;
+    }
+
+    private static boolean isJpeg(File imgFile) {
+        String name = imgFile.getName().toLowerCase();
+        return name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+
+    private static BufferedImage toBufferedImage(ImageIcon icon) {
+        if (icon.getImage() instanceof BufferedImage image) {
+            return image;
+        }
+        // Deserialized icons hold a toolkit image
+        BufferedImage image = new BufferedImage(Math.max(1, icon.getIconWidth()), Math.max(1, icon.getIconHeight()),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.drawImage(icon.getImage(), 0, 0, null);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Level keys look like {@code fp_<fingerprint>_L<level>}. If the file cannot be
+     * fingerprinted, its path and last-modified time stand in for the fingerprint.
+     */
+    private static String keyPrefix(File imgFile) {
+        try {
+            return KEY_PREFIX + FingerprintManager.getInstance().getFingerprint(imgFile) + "_L";
+        } catch (IOException e) {
+            return imgFile.getAbsolutePath() + "_" + imgFile.lastModified() + "_L";
+        }
+    }
+}
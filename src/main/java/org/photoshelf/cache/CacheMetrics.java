@@ -0,0 +1,132 @@
+package org.photoshelf.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for one cache. Every method is cheap and lock-free so it
+ * can be called on the lookup path.
+ */
+public class CacheMetrics {
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder pendingHits = new LongAdder();
+    private final LongAdder offHeapHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder diskWrites = new LongAdder();
+    private final LongAdder diskBytesWritten = new LongAdder();
+    private final LongAdder diskErrors = new LongAdder();
+    private final LatencyHistogram offHeapReadLatency = new LatencyHistogram();
+    private final LatencyHistogram diskReadLatency = new LatencyHistogram();
+    private final LatencyHistogram diskWriteLatency = new LatencyHistogram();
+
+    public void recordMemoryHit() {
+        memoryHits.increment();
+    }
+
+    public void recordPendingHit() {
+        pendingHits.increment();
+    }
+
+    /**
+     * @param nanos The time taken to copy and decode the entry.
+     */
+    public void recordOffHeapHit(long nanos) {
+        offHeapHits.increment();
+        offHeapReadLatency.record(nanos);
+    }
+
+    /**
+     * @param nanos The time taken to read and decode the entry.
+     */
+    public void recordDiskHit(long nanos) {
+        diskHits.increment();
+        diskReadLatency.record(nanos);
+    }
+
+    /**
+     * @param diskNanos The time spent looking on disk, or 0 if the disk was not consulted.
+     */
+    public void recordMiss(long diskNanos) {
+        misses.increment();
+        if (diskNanos > 0) {
+            diskReadLatency.record(diskNanos);
+        }
+    }
+
+    public void recordPut() {
+        puts.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * @param entries The number of entries written.
+     * @param bytes   The number of value bytes written.
+     * @param nanos   The time taken to encode and write the batch.
+     */
+    public void recordDiskWrite(int entries, long bytes, long nanos) {
+        diskWrites.add(entries);
+        diskBytesWritten.add(bytes);
+        diskWriteLatency.record(nanos);
+    }
+
+    public void recordDiskError() {
+        diskErrors.increment();
+    }
+
+    public long memoryHits() {
+        return memoryHits.sum();
+    }
+
+    public long pendingHits() {
+        return pendingHits.sum();
+    }
+
+    public long offHeapHits() {
+        return offHeapHits.sum();
+    }
+
+    public long diskHits() {
+        return diskHits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long puts() {
+        return puts.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public long diskWrites() {
+        return diskWrites.sum();
+    }
+
+    public long diskBytesWritten() {
+        return diskBytesWritten.sum();
+    }
+
+    public long diskErrors() {
+        return diskErrors.sum();
+    }
+
+    public LatencyHistogram offHeapReadLatency() {
+        return offHeapReadLatency;
+    }
+
+    public LatencyHistogram diskReadLatency() {
+        return diskReadLatency;
+    }
+
+    public LatencyHistogram diskWriteLatency() {
+        return diskWriteLatency;
+    }
+}
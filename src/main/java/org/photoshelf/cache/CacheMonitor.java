@@ -0,0 +1,188 @@
+package org.photoshelf.cache;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the statistics of a cache through JMX. Every attribute read takes a fresh snapshot.
+ */
+public class CacheMonitor implements CacheMonitorMXBean {
+    private final Supplier<CacheStats> stats;
+    private ObjectName objectName;
+
+    public CacheMonitor(Supplier<CacheStats> stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Registers this monitor with the platform MBean server. Failures are logged and ignored.
+     *
+     * @param cacheName The name of the cache.
+     */
+    public synchronized void register(String cacheName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.photoshelf:type=Cache,name=" + ObjectName.quote(cacheName));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            System.err.println("Failed to register cache MBean for " + cacheName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes this monitor from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Already gone
+        }
+        objectName = null;
+    }
+
+    @Override
+    public double getHitRatio() {
+        return stats.get().getHitRatio();
+    }
+
+    @Override
+    public double getMemoryHitRatio() {
+        return stats.get().getMemoryHitRatio();
+    }
+
+    @Override
+    public long getMemoryHits() {
+        return stats.get().getMemoryHits();
+    }
+
+    @Override
+    public long getPendingHits() {
+        return stats.get().getPendingHits();
+    }
+
+    @Override
+    public long getOffHeapHits() {
+        return stats.get().getOffHeapHits();
+    }
+
+    @Override
+    public long getDiskHits() {
+        return stats.get().getDiskHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return stats.get().getMisses();
+    }
+
+    @Override
+    public long getPuts() {
+        return stats.get().getPuts();
+    }
+
+    @Override
+    public long getEvictions() {
+        return stats.get().getEvictions();
+    }
+
+    @Override
+    public long getDiskWrites() {
+        return stats.get().getDiskWrites();
+    }
+
+    @Override
+    public long getDiskBytesWritten() {
+        return stats.get().getDiskBytesWritten();
+    }
+
+    @Override
+    public long getDiskErrors() {
+        return stats.get().getDiskErrors();
+    }
+
+    @Override
+    public long getOffHeapReadMeanMicros() {
+        return stats.get().getOffHeapReadMeanNanos() / 1000;
+    }
+
+    @Override
+    public long getDiskReadMeanMicros() {
+        return stats.get().getDiskReadMeanNanos() / 1000;
+    }
+
+    @Override
+    public long getDiskReadP99Micros() {
+        return stats.get().getDiskReadP99Nanos() / 1000;
+    }
+
+    @Override
+    public long getDiskWriteBatchMeanMicros() {
+        return stats.get().getDiskWriteBatchMeanNanos() / 1000;
+    }
+
+    @Override
+    public int getMemoryEntries() {
+        return stats.get().getMemoryEntries();
+    }
+
+    @Override
+    public long getMemoryWeight() {
+        return stats.get().getMemoryWeight();
+    }
+
+    @Override
+    public long getMemoryMaximumWeight() {
+        return stats.get().getMemoryMaximumWeight();
+    }
+
+    @Override
+    public int getOffHeapEntries() {
+        return stats.get().getOffHeapEntries();
+    }
+
+    @Override
+    public long getOffHeapUsedBytes() {
+        return stats.get().getOffHeapUsedBytes();
+    }
+
+    @Override
+    public long getOffHeapCapacity() {
+        return stats.get().getOffHeapCapacity();
+    }
+
+    @Override
+    public int getWriteQueueDepth() {
+        return stats.get().getWriteQueueDepth();
+    }
+
+    @Override
+    public long getWritesCoalesced() {
+        return stats.get().getWritesCoalesced();
+    }
+
+    @Override
+    public long getWritesDropped() {
+        return stats.get().getWritesDropped();
+    }
+
+    @Override
+    public int getDiskEntries() {
+        return stats.get().getDiskEntries();
+    }
+
+    @Override
+    public long getDiskBytes() {
+        return stats.get().getDiskBytes();
+    }
+}
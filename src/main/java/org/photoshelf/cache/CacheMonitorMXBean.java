@@ -0,0 +1,60 @@
+package org.photoshelf.cache;
+
+/**
+ * The JMX view of a cache, registered as {@code org.photoshelf:type=Cache,name=<cache name>}.
+ */
+public interface CacheMonitorMXBean {
+    double getHitRatio();
+
+    double getMemoryHitRatio();
+
+    long getMemoryHits();
+
+    long getPendingHits();
+
+    long getOffHeapHits();
+
+    long getDiskHits();
+
+    long getMisses();
+
+    long getPuts();
+
+    long getEvictions();
+
+    long getDiskWrites();
+
+    long getDiskBytesWritten();
+
+    long getDiskErrors();
+
+    long getOffHeapReadMeanMicros();
+
+    long getDiskReadMeanMicros();
+
+    long getDiskReadP99Micros();
+
+    long getDiskWriteBatchMeanMicros();
+
+    int getMemoryEntries();
+
+    long getMemoryWeight();
+
+    long getMemoryMaximumWeight();
+
+    int getOffHeapEntries();
+
+    long getOffHeapUsedBytes();
+
+    long getOffHeapCapacity();
+
+    int getWriteQueueDepth();
+
+    long getWritesCoalesced();
+
+    long getWritesDropped();
+
+    int getDiskEntries();
+
+    long getDiskBytes();
+}
@@ -0,0 +1,213 @@
+package org.photoshelf.cache;
+
+/**
+ * A point-in-time view of a cache's counters and tier sizes.
+ */
+public final class CacheStats {
+    private final String name;
+    private final long memoryHits;
+    private final long pendingHits;
+    private final long offHeapHits;
+    private final long diskHits;
+    private final long misses;
+    private final long puts;
+    private final long evictions;
+    private final long diskWrites;
+    private final long diskBytesWritten;
+    private final long diskErrors;
+    private final long offHeapReadMeanNanos;
+    private final long diskReadMeanNanos;
+    private final long diskReadP99Nanos;
+    private final long diskWriteBatchMeanNanos;
+    private final int memoryEntries;
+    private final long memoryWeight;
+    private final long memoryMaximumWeight;
+    private final int offHeapEntries;
+    private final long offHeapUsedBytes;
+    private final long offHeapCapacity;
+    private final int writeQueueDepth;
+    private final long writesCoalesced;
+    private final long writesDropped;
+    private final int diskEntries;
+    private final long diskBytes;
+
+    /**
+     * Captures the counters of a cache together with the current sizes of its tiers.
+     */
+    public CacheStats(String name, CacheMetrics metrics, int memoryEntries, long memoryWeight, long memoryMaximumWeight,
+                      int offHeapEntries, long offHeapUsedBytes, long offHeapCapacity, int writeQueueDepth,
+                      long writesCoalesced, long writesDropped, int diskEntries, long diskBytes) {
+        this.name = name;
+        this.memoryHits = metrics.memoryHits();
+        this.pendingHits = metrics.pendingHits();
+        this.offHeapHits = metrics.offHeapHits();
+        this.diskHits = metrics.diskHits();
+        this.misses = metrics.misses();
+        this.puts = metrics.puts();
+        this.evictions = metrics.evictions();
+        this.diskWrites = metrics.diskWrites();
+        this.diskBytesWritten = metrics.diskBytesWritten();
+        this.diskErrors = metrics.diskErrors();
+        this.offHeapReadMeanNanos = metrics.offHeapReadLatency().meanNanos();
+        this.diskReadMeanNanos = metrics.diskReadLatency().meanNanos();
+        this.diskReadP99Nanos = metrics.diskReadLatency().percentileNanos(99);
+        this.diskWriteBatchMeanNanos = metrics.diskWriteLatency().meanNanos();
+        this.memoryEntries = memoryEntries;
+        this.memoryWeight = memoryWeight;
+        this.memoryMaximumWeight = memoryMaximumWeight;
+        this.offHeapEntries = offHeapEntries;
+        this.offHeapUsedBytes = offHeapUsedBytes;
+        this.offHeapCapacity = offHeapCapacity;
+        this.writeQueueDepth = writeQueueDepth;
+        this.writesCoalesced = writesCoalesced;
+        this.writesDropped = writesDropped;
+        this.diskEntries = diskEntries;
+        this.diskBytes = diskBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of lookups, hits and misses.
+     */
+    public long getRequests() {
+        return memoryHits + pendingHits + offHeapHits + diskHits + misses;
+    }
+
+    /**
+     * @return The fraction of lookups served by any tier, or 0 if there were none.
+     */
+    public double getHitRatio() {
+        long requests = getRequests();
+        return requests == 0 ? 0 : (double) (requests - misses) / requests;
+    }
+
+    /**
+     * @return The fraction of lookups served by the heap tier, or 0 if there were none.
+     */
+    public double getMemoryHitRatio() {
+        long requests = getRequests();
+        return requests == 0 ? 0 : (double) memoryHits / requests;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits;
+    }
+
+    /**
+     * @return Lookups served from writes still waiting for the disk.
+     */
+    public long getPendingHits() {
+        return pendingHits;
+    }
+
+    public long getOffHeapHits() {
+        return offHeapHits;
+    }
+
+    public long getDiskHits() {
+        return diskHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getPuts() {
+        return puts;
+    }
+
+    /**
+     * @return Entries evicted from the heap tier to stay within its budget.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getDiskWrites() {
+        return diskWrites;
+    }
+
+    public long getDiskBytesWritten() {
+        return diskBytesWritten;
+    }
+
+    public long getDiskErrors() {
+        return diskErrors;
+    }
+
+    public long getOffHeapReadMeanNanos() {
+        return offHeapReadMeanNanos;
+    }
+
+    /**
+     * @return The mean time of a disk lookup, hit or miss, including decoding.
+     */
+    public long getDiskReadMeanNanos() {
+        return diskReadMeanNanos;
+    }
+
+    public long getDiskReadP99Nanos() {
+        return diskReadP99Nanos;
+    }
+
+    public long getDiskWriteBatchMeanNanos() {
+        return diskWriteBatchMeanNanos;
+    }
+
+    public int getMemoryEntries() {
+        return memoryEntries;
+    }
+
+    public long getMemoryWeight() {
+        return memoryWeight;
+    }
+
+    public long getMemoryMaximumWeight() {
+        return memoryMaximumWeight;
+    }
+
+    public int getOffHeapEntries() {
+        return offHeapEntries;
+    }
+
+    public long getOffHeapUsedBytes() {
+        return offHeapUsedBytes;
+    }
+
+    public long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    public int getWriteQueueDepth() {
+        return writeQueueDepth;
+    }
+
+    public long getWritesCoalesced() {
+        return writesCoalesced;
+    }
+
+    public long getWritesDropped() {
+        return writesDropped;
+    }
+
+    public int getDiskEntries() {
+        return diskEntries;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.1f%% hits (memory %d, off-heap %d, disk %d, pending %d), %d misses, "
+                        + "%d evictions, memory %d/%d, off-heap %d/%d bytes, queue %d, disk %d entries in %d bytes, "
+                        + "disk read mean %d us, p99 %d us",
+                name, getHitRatio() * 100, memoryHits, offHeapHits, diskHits, pendingHits, misses, evictions,
+                memoryWeight, memoryMaximumWeight, offHeapUsedBytes, offHeapCapacity, writeQueueDepth,
+                diskEntries, diskBytes, diskReadMeanNanos / 1000, diskReadP99Nanos / 1000);
+    }
+}
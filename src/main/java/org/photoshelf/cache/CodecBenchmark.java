@@ -0,0 +1,136 @@
+package org.photoshelf.cache;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the thumbnail codecs by entry size and encode/decode time, to help pick the
+ * default for the thumbnail cache.
+ * <p>
+ * Usage: {@code java -jar ImageOrganizer.jar --benchmark-codecs [imageDirectory] [thumbnailSize]}.
+ * Without a directory, synthetic photo-like thumbnails are used.
+ */
+public class CodecBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int MAX_SAMPLES = 200;
+
+    public static void run(String[] args) {
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 150;
+        List<ImageIcon> samples = args.length > 1 ? loadSamples(new File(args[1]), size) : syntheticSamples(size);
+        if (samples.isEmpty()) {
+            System.out.println("No readable images found.");
+            return;
+        }
+
+        List<ValueCodec<ImageIcon>> codecs = List.of(new SerializingCodec<>(), new RawPixelCodec(), new CompressedImageCodec());
+        System.out.printf("%d thumbnails, max %dpx, %d rounds%n", samples.size(), size, ROUNDS);
+        System.out.printf("%-22s %12s %14s %14s%n", "codec", "avg bytes", "encode us/img", "decode us/img");
+        for (ValueCodec<ImageIcon> codec : codecs) {
+            try {
+                report(codec, samples);
+            } catch (IOException e) {
+                System.out.println(codec.getClass().getSimpleName() + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void report(ValueCodec<ImageIcon> codec, List<ImageIcon> samples) throws IOException {
+        List<byte[]> encoded = new ArrayList<>();
+        long totalBytes = 0;
+        for (ImageIcon icon : samples) {
+            byte[] data = codec.encode(icon); // Warm up and measure size
+            encoded.add(data);
+            totalBytes += data.length;
+        }
+        for (byte[] data : encoded) {
+            codec.decode(data);
+        }
+
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (ImageIcon icon : samples) {
+                codec.encode(icon);
+            }
+            encodeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] data : encoded) {
+                codec.decode(data);
+            }
+            decodeNanos += System.nanoTime() - start;
+        }
+
+        long operations = (long) ROUNDS * samples.size();
+        System.out.printf("%-22s %12d %14.1f %14.1f%n", codec.getClass().getSimpleName(),
+                totalBytes / samples.size(), encodeNanos / 1000.0 / operations, decodeNanos / 1000.0 / operations);
+    }
+
+    private static List<ImageIcon> loadSamples(File directory, int size) {
+        List<ImageIcon> samples = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return samples;
+        }
+        for (File file : files) {
+            if (samples.size() >= MAX_SAMPLES) {
+                break;
+            }
+            try {
+                BufferedImage image = file.isFile() ? ImageIO.read(file) : null;
+                if (image != null) {
+                    samples.add(new ImageIcon(scale(image, size)));
+                }
+            } catch (IOException e) {
+                // Skip unreadable files
+            }
+        }
+        return samples;
+    }
+
+    private static List<ImageIcon> syntheticSamples(int size) {
+        List<ImageIcon> samples = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < MAX_SAMPLES; i++) {
+            BufferedImage image = new BufferedImage(size, size * 3 / 4, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = image.createGraphics();
+            g2d.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), size, size, new Color(random.nextInt())));
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            for (int shape = 0; shape < 20; shape++) {
+                g2d.setColor(new Color(random.nextInt()));
+                g2d.fillOval(random.nextInt(size), random.nextInt(size), random.nextInt(size / 2) + 1, random.nextInt(size / 2) + 1);
+            }
+            g2d.dispose();
+            for (int noise = 0; noise < size * size / 8; noise++) {
+                int x = random.nextInt(image.getWidth());
+                int y = random.nextInt(image.getHeight());
+                image.setRGB(x, y, image.getRGB(x, y) ^ (random.nextInt(0x101010)));
+            }
+            samples.add(new ImageIcon(image));
+        }
+        return samples;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double scale = Math.min(1.0, Math.min((double) size / image.getWidth(), (double) size / image.getHeight()));
+        int width = Math.max(1, (int) (image.getWidth() * scale));
+        int height = Math.max(1, (int) (image.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = scaled.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, width, height, null);
+        g2d.dispose();
+        return scaled;
+    }
+}
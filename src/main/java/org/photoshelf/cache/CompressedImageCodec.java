@@ -0,0 +1,111 @@
+package org.photoshelf.cache;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A thumbnail codec that stores JPEG, or PNG for thumbnails with transparency such as the
+ * "Failed" placeholder. Entries are several times smaller than raw pixels.
+ * <p>
+ * Encoding and decoding go through in-memory ImageIO streams so ImageIO never spills
+ * to temporary files.
+ * <p>
+ * Format: {@code byte format (0 = JPEG, 1 = PNG), image bytes}.
+ */
+public class CompressedImageCodec implements ValueCodec<ImageIcon> {
+    public static final byte ID = 2;
+    private static final byte JPEG = 0;
+    private static final byte PNG = 1;
+
+    private final float jpegQuality;
+
+    /**
+     * @param jpegQuality The JPEG quality between 0 and 1.
+     */
+    public CompressedImageCodec(float jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public CompressedImageCodec() {
+        this(0.85f);
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(ImageIcon icon) throws IOException {
+        BufferedImage image = IconImages.toBufferedImage(icon);
+        int[] argb = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        boolean transparent = IconImages.hasTransparency(image, argb);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(transparent ? PNG : JPEG);
+        ImageWriter writer = firstWriter(transparent ? "png" : "jpeg");
+        try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (!transparent) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                image = toOpaque(image);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ImageIcon decode(byte[] data) throws IOException {
+        if (data.length < 2 || (data[0] != JPEG && data[0] != PNG)) {
+            throw new IOException("Corrupt compressed thumbnail");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(data[0] == JPEG ? "jpeg" : "png");
+        if (!readers.hasNext()) {
+            throw new IOException("No ImageIO reader for cached thumbnail");
+        }
+        ImageReader reader = readers.next();
+        try (MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(data, 1, data.length - 1))) {
+            reader.setInput(input, true, true);
+            return new ImageIcon(reader.read(0));
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static ImageWriter firstWriter(String format) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+        return writers.next();
+    }
+
+    private static BufferedImage toOpaque(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = opaque.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return opaque;
+    }
+}
@@ -0,0 +1,105 @@
+package org.photoshelf.cache;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * The fixed-size header in front of every value in the disk tier.
+ * <p>
+ * It identifies the entry format and the {@link ValueCodec} that produced the payload, and
+ * carries a CRC32C of the payload. An entry can be rejected by reading just the header,
+ * before any payload is read or decoded: entries of another format version or codec are
+ * stale. The checksum catches corrupt payloads cheaply, instead of relying on the codec to
+ * throw.
+ * <p>
+ * Layout:
+ * <pre>
+ * header := int magic, short formatVersion, byte codecId, byte reserved, int payloadLength, int crc32c
+ * </pre>
+ */
+public final class EntryHeader {
+    private static final int MAGIC = 0x50534345; // "PSCE"
+    /** Bump to invalidate every entry written before; old entries are then dropped as they are read. */
+    private static final short FORMAT_VERSION = 2;
+
+    public static final int SIZE = 4 + 2 + 1 + 1 + 4 + 4;
+
+    private final byte codecId;
+    private final int payloadLength;
+    private final int checksum;
+
+    private EntryHeader(byte codecId, int payloadLength, int checksum) {
+        this.codecId = codecId;
+        this.payloadLength = payloadLength;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Prefixes a payload with its header.
+     *
+     * @param codecId The id of the codec that encoded the payload.
+     * @param payload The encoded value.
+     * @return The header followed by the payload.
+     */
+    public static byte[] wrap(byte codecId, byte[] payload) {
+        ByteBuffer entry = ByteBuffer.allocate(SIZE + payload.length);
+        entry.putInt(MAGIC).putShort(FORMAT_VERSION).put(codecId).put((byte) 0)
+                .putInt(payload.length).putInt(checksum(payload, 0, payload.length))
+                .put(payload);
+        return entry.array();
+    }
+
+    /**
+     * Parses the header at the start of an entry.
+     *
+     * @param entry At least the first {@link #SIZE} bytes of an entry.
+     * @return The header, or null if the bytes do not start with a header of the current format.
+     */
+    public static EntryHeader read(byte[] entry) {
+        if (entry == null || entry.length < SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(entry, 0, SIZE);
+        if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT_VERSION) {
+            return null;
+        }
+        byte codecId = buffer.get();
+        buffer.get(); // Reserved
+        int payloadLength = buffer.getInt();
+        int checksum = buffer.getInt();
+        return payloadLength < 0 ? null : new EntryHeader(codecId, payloadLength, checksum);
+    }
+
+    /**
+     * Checks that a whole entry has the length and checksum its header records.
+     *
+     * @param entry The header followed by the payload.
+     * @return true if the payload is intact.
+     */
+    public boolean matches(byte[] entry) {
+        return entry.length == SIZE + payloadLength && checksum(entry, SIZE, payloadLength) == checksum;
+    }
+
+    /**
+     * @return A copy of the payload of an entry with this header.
+     */
+    public byte[] payload(byte[] entry) {
+        byte[] payload = new byte[payloadLength];
+        System.arraycopy(entry, SIZE, payload, 0, payloadLength);
+        return payload;
+    }
+
+    public byte getCodecId() {
+        return codecId;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,52 @@
+package org.photoshelf.cache;
+
+/**
+ * What the {@link SegmentStore} index knows about a stored entry without reading its value.
+ */
+public final class EntryMetadata {
+    private final String key;
+    private final String sourcePath;
+    private final long sourceModified;
+    private final int size;
+    private final long lastAccess;
+
+    public EntryMetadata(String key, String sourcePath, long sourceModified, int size, long lastAccess) {
+        this.key = key;
+        this.sourcePath = sourcePath;
+        this.sourceModified = sourceModified;
+        this.size = size;
+        this.lastAccess = lastAccess;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return The absolute path of the file the entry was derived from, or null if none was recorded.
+     */
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * @return The last-modified time of the source file when the entry was written.
+     */
+    public long getSourceModified() {
+        return sourceModified;
+    }
+
+    /**
+     * @return The size of the stored value in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The time the entry was last written or read, in epoch milliseconds.
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+}
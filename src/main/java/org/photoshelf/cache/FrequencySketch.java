@@ -0,0 +1,116 @@
+package org.photoshelf.cache;
+
+/**
+ * A probabilistic estimate of how often an element has been seen recently, used by
+ * {@link WTinyLfuCache} to decide whether a new entry is worth more than the entry it
+ * would replace.
+ * <p>
+ * This is a count-min sketch with four 4-bit counters per element, packed sixteen to a
+ * {@code long}. Once the number of recorded accesses reaches ten times the table width
+ * every counter is halved, so old popularity fades out over time.
+ * <p>
+ * This class is not thread-safe; callers must hold the owning cache's eviction lock.
+ *
+ * @param <E> The type of the elements being counted.
+ */
+final class FrequencySketch<E> {
+    private static final long[] SEEDS = {
+            0x97cb3127L, 0xc3a5c85cL, 0xb492b66fL, 0x9ae16a3bL
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long[] table = new long[0];
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * Grows the sketch so it can track about {@code maximumSize} distinct elements.
+     * The counters are discarded when the table is resized.
+     *
+     * @param maximumSize The expected number of distinct elements.
+     */
+    void ensureCapacity(long maximumSize) {
+        int capacity = (int) Math.min(Math.max(maximumSize, 16), 1 << 30);
+        if (table.length >= capacity) {
+            return;
+        }
+        table = new long[ceilingPowerOfTwo(capacity)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * table.length;
+        size = 0;
+    }
+
+    /**
+     * @return The number of counter words, which bounds the distinct elements tracked well.
+     */
+    int tableSize() {
+        return table.length;
+    }
+
+    /**
+     * Returns the estimated number of occurrences of an element, up to 15.
+     */
+    int frequency(E element) {
+        if (table.length == 0) {
+            return 0;
+        }
+        int hash = spread(element.hashCode());
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int slotHash = rehash(hash, i);
+            long word = table[(slotHash >>> 4) & tableMask];
+            int count = (int) ((word >>> ((slotHash & 15) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of an element, ageing all counters if the sample period
+     * has elapsed.
+     */
+    void increment(E element) {
+        if (table.length == 0) {
+            return;
+        }
+        int hash = spread(element.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int slotHash = rehash(hash, i);
+            int index = (slotHash >>> 4) & tableMask;
+            int offset = (slotHash & 15) << 2;
+            long mask = 0xFL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int rehash(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
@@ -0,0 +1,48 @@
+package org.photoshelf.cache;
+
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/**
+ * Helpers for turning cached icons into pixel data.
+ */
+final class IconImages {
+
+    private IconImages() {
+    }
+
+    /**
+     * Returns the image behind an icon as a {@link BufferedImage}, drawing it into a new
+     * ARGB image if it is some other kind of {@link Image}.
+     */
+    static BufferedImage toBufferedImage(ImageIcon icon) {
+        Image image = icon.getImage();
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+        int width = Math.max(1, icon.getIconWidth());
+        int height = Math.max(1, icon.getIconHeight());
+        BufferedImage buffered = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = buffered.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return buffered;
+    }
+
+    /**
+     * @return true if any pixel is not fully opaque.
+     */
+    static boolean hasTransparency(BufferedImage image, int[] argb) {
+        if (!image.getColorModel().hasAlpha()) {
+            return false;
+        }
+        for (int pixel : argb) {
+            if ((pixel >>> 24) != 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
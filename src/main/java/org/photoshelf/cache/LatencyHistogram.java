@@ -0,0 +1,70 @@
+package org.photoshelf.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in power-of-two nanosecond buckets. Percentiles are
+ * reported as the upper bound of the bucket they fall in, so they are accurate to within a
+ * factor of two, which is enough to spot a tier slowing down.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 48;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long value = Math.max(1, nanos);
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(value));
+        counts.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(value);
+    }
+
+    /**
+     * @return The number of recorded latencies.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long meanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound in nanoseconds of the bucket holding the percentile, or 0 if nothing was recorded.
+     */
+    public long percentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return (1L << (i + 1)) - 1;
+            }
+        }
+        return (1L << BUCKETS) - 1;
+    }
+}
@@ -0,0 +1,238 @@
+package org.photoshelf.cache;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fixed-size store of byte values kept outside the Java heap in direct {@link ByteBuffer} slabs.
+ * <p>
+ * Values are bump-allocated into the current slab. The slabs form a ring, so when the
+ * current slab is full the next one is the oldest and is recycled: values that were read since it was last recycled are moved to its start and
+ * kept, the rest are evicted, and allocation continues after the survivors. This is a FIFO
+ * with a second chance per value, which needs no per-entry bookkeeping beyond a flag and
+ * never fragments.
+ * <p>
+ * Reads do not lock. Each slab has a generation that changes whenever it is recycled; a read
+ * copies the bytes out and then checks that the generation it started with is still current,
+ * treating the value as missing otherwise. Writes are serialized.
+ *
+ * @param <K> The type of the keys.
+ */
+public class OffHeapStore<K> {
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /** A recycled slab keeps at most this fraction of its space for values read recently. */
+    private static final double MAX_RETAINED_FRACTION = 0.5;
+
+    private final ConcurrentHashMap<K, Slot> index = new ConcurrentHashMap<>();
+    private final List<Slab<K>> slabs;
+    private final int slabSize;
+
+    // Guarded by this
+    private int current;
+    private long usedBytes;
+
+    /**
+     * Allocates the slabs.
+     *
+     * @param capacityBytes The total off-heap memory to use, rounded down to whole slabs.
+     * @param slabSize      The size of each slab, which is also the largest value accepted.
+     */
+    public OffHeapStore(long capacityBytes, int slabSize) {
+        int count = (int) Math.max(2, capacityBytes / slabSize);
+        this.slabSize = slabSize;
+        this.slabs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            slabs.add(new Slab<>(ByteBuffer.allocateDirect(slabSize)));
+        }
+    }
+
+    /**
+     * Returns a copy of the value for a key, or null if it is not stored.
+     *
+     * @param key The key to look up.
+     * @return The value bytes, or null.
+     */
+    public byte[] get(K key) {
+        Slot slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        Slab<K> slab = slabs.get(slot.slab);
+        if (slab.generation != slot.generation) {
+            return null;
+        }
+        byte[] value = new byte[slot.length];
+        slab.buffer.get(slot.offset, value);
+        VarHandle.loadLoadFence();
+        if (slab.generation != slot.generation) {
+            return null; // Recycled while copying
+        }
+        slot.referenced = true;
+        return value;
+    }
+
+    /**
+     * Stores a value, replacing any earlier value for the key. Values larger than a slab are ignored.
+     *
+     * @param key   The key to store.
+     * @param value The value bytes.
+     */
+    public synchronized void put(K key, byte[] value) {
+        if (value.length > slabSize) {
+            return;
+        }
+        Slab<K> slab = slabs.get(current);
+        if (slab.position + value.length > slabSize) {
+            slab = advance(value.length);
+        }
+        slab.buffer.put(slab.position, value);
+        Slot slot = new Slot(current, slab.position, value.length, slab.generation);
+        slab.position += value.length;
+        slab.keys.add(key);
+        usedBytes += value.length;
+        Slot previous = index.put(key, slot);
+        if (previous != null) {
+            usedBytes -= previous.length;
+        }
+    }
+
+    /**
+     * Removes the value for a key. Its space is reclaimed when its slab is recycled.
+     *
+     * @param key The key to remove.
+     */
+    public synchronized void remove(K key) {
+        Slot slot = index.remove(key);
+        if (slot != null) {
+            usedBytes -= slot.length;
+        }
+    }
+
+    /**
+     * Removes every value. The slabs stay allocated.
+     */
+    public synchronized void clear() {
+        index.clear();
+        for (Slab<K> slab : slabs) {
+            slab.reset();
+        }
+        current = 0;
+        usedBytes = 0;
+    }
+
+    /**
+     * @return The number of stored values.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return The total size of the stored values.
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return The total size of all slabs.
+     */
+    public long capacity() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    // --- Allocation, guarded by this ---
+
+    /**
+     * Moves allocation to the next slab, recycling slabs until one has room for the value.
+     */
+    private Slab<K> advance(int length) {
+        while (true) {
+            int next = (current + 1) % slabs.size();
+            Slab<K> slab = slabs.get(next);
+            recycle(next);
+            current = next;
+            if (slab.position + length <= slabSize) {
+                return slab;
+            }
+        }
+    }
+
+    /**
+     * Evicts the values of a slab that were not read since it was last recycled and
+     * compacts the others to its start.
+     */
+    private void recycle(int slabIndex) {
+        Slab<K> slab = slabs.get(slabIndex);
+        List<K> keys = slab.keys;
+        List<K> retained = new ArrayList<>();
+        List<Slot> retainedSlots = new ArrayList<>();
+        int limit = (int) (slabSize * MAX_RETAINED_FRACTION);
+        int position = 0;
+        int generation = slab.generation + 1;
+
+        // Invalidate concurrent reads before any bytes move
+        slab.generation = generation;
+        VarHandle.storeStoreFence();
+        for (K key : keys) {
+            Slot slot = index.get(key);
+            if (slot == null || slot.slab != slabIndex || slot.generation != generation - 1) {
+                continue; // Replaced or removed since
+            }
+            if (slot.referenced && position + slot.length <= limit) {
+                // Slots are in offset order, so moving each to a lower offset never overwrites one not yet moved
+                slab.buffer.put(position, slab.buffer, slot.offset, slot.length);
+                Slot moved = new Slot(slabIndex, position, slot.length, generation);
+                position += slot.length;
+                retained.add(key);
+                retainedSlots.add(moved);
+            } else {
+                index.remove(key, slot);
+                usedBytes -= slot.length;
+            }
+        }
+        slab.keys = retained;
+        slab.position = position;
+        for (int i = 0; i < retained.size(); i++) {
+            index.replace(retained.get(i), retainedSlots.get(i));
+        }
+    }
+
+    private static final class Slot {
+        final int slab;
+        final int offset;
+        final int length;
+        final int generation;
+        volatile boolean referenced;
+
+        Slot(int slab, int offset, int length, int generation) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.generation = generation;
+        }
+    }
+
+    private static final class Slab<K> {
+        final ByteBuffer buffer;
+        volatile int generation;
+        // Guarded by the store
+        int position;
+        List<K> keys = new ArrayList<>();
+
+        Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void reset() {
+            generation++;
+            VarHandle.storeStoreFence();
+            position = 0;
+            keys = new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.photoshelf.cache;
+
+import javax.swing.ImageIcon;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A thumbnail codec that stores uncompressed pixels: 3 bytes per pixel for opaque
+ * images and 4 for images with transparency. Decoding is a single copy, at the cost of
+ * the largest entries.
+ * <p>
+ * Format: {@code int width, int height, byte channels, pixels}.
+ */
+public class RawPixelCodec implements ValueCodec<ImageIcon> {
+    public static final byte ID = 1;
+    private static final int HEADER_SIZE = 9;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(ImageIcon icon) {
+        BufferedImage image = IconImages.toBufferedImage(icon);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        int channels = IconImages.hasTransparency(image, argb) ? 4 : 3;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + argb.length * channels);
+        buffer.putInt(width).putInt(height).put((byte) channels);
+        for (int pixel : argb) {
+            if (channels == 4) {
+                buffer.put((byte) (pixel >>> 24));
+            }
+            buffer.put((byte) (pixel >>> 16)).put((byte) (pixel >>> 8)).put((byte) pixel);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public ImageIcon decode(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE) {
+            throw new IOException("Truncated raw thumbnail");
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int channels = buffer.get();
+        if (width <= 0 || height <= 0 || (channels != 3 && channels != 4)
+                || data.length != HEADER_SIZE + (long) width * height * channels) {
+            throw new IOException("Corrupt raw thumbnail");
+        }
+
+        BufferedImage image = new BufferedImage(width, height,
+                channels == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < pixels.length; i++) {
+            int alpha = channels == 4 ? (data[offset++] & 0xFF) << 24 : 0;
+            pixels[i] = alpha | (data[offset] & 0xFF) << 16 | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF);
+            offset += 3;
+        }
+        return new ImageIcon(image);
+    }
+}
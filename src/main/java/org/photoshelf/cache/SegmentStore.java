@@ -0,0 +1,871 @@
+package org.photoshelf.cache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * An append-only, log-structured key/value store for cache entries.
+ * <p>
+ * Values are appended to large segment files instead of one file per key. An in-memory
+ * index maps every key to the segment, offset and length of its latest value. When a
+ * segment reaches its size limit it is sealed with a footer listing every record it
+ * holds, so the index can be rebuilt at startup by reading footers only. The segment
+ * that was active when the process stopped has no footer and is recovered by scanning
+ * its records.
+ * <p>
+ * Each entry may record the path and last-modified time of the file it was derived from.
+ * Together with the value size and last access time this is kept in the index, so callers
+ * can validate entries through {@link #entries()} without reading any values. Access times
+ * are written to the footer when a segment is sealed; later reads of sealed entries are
+ * only tracked in memory.
+ * <p>
+ * Overwritten and deleted values stay on disk until a background compaction copies the
+ * live records of mostly-dead segments forward and deletes the old files.
+ * <p>
+ * An optional quota bounds the total size of the segment files. The same background thread
+ * checks it: when the files outgrow the quota, the least recently accessed entries are
+ * deleted until the live data is well below it, and the emptied space is compacted away.
+ * Access times are the in-memory ones from the index, so reads never touch the disk for
+ * bookkeeping.
+ * <p>
+ * File layout:
+ * <pre>
+ * segment := header record* [footer trailer]
+ * header  := int magic, int version
+ * record  := int recordSize, byte type, short keyLength, key, short sourceLength, source,
+ *            long sourceModified, int valueLength, value
+ * footer  := (byte type, short keyLength, key, short sourceLength, source, long sourceModified,
+ *             long lastAccess, long recordStart, int recordSize)*
+ * trailer := long footerStart, int entryCount, int footerMagic
+ * </pre>
+ */
+public class SegmentStore implements Closeable {
+    private static final int SEGMENT_MAGIC = 0x50535347; // "PSSG"
+    private static final int FOOTER_MAGIC = 0x50534654;  // "PSFT"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 16;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 2 + 2 + 8 + 4;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** Sealed segments whose live data falls below this fraction are compacted. */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    /** Quota enforcement deletes entries until the live data fits in this fraction of the quota. */
+    private static final double QUOTA_LOW_WATERMARK = 0.8;
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private final Object maintenanceLock = new Object();
+    private final ScheduledExecutorService compactor;
+    // Written under the write lock; read without it by the compactor to skip the live segment
+    private volatile Segment active;
+    private volatile boolean closed;
+    private volatile long quota;
+
+    /**
+     * Opens the store in a directory, rebuilding the index from the segments already there.
+     *
+     * @param directory      The directory holding the segment files.
+     * @param maxSegmentSize The size at which the active segment is sealed and a new one started.
+     * @throws IOException If the directory cannot be read or a new segment cannot be created.
+     */
+    public SegmentStore(Path directory, long maxSegmentSize) throws IOException {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        Files.createDirectories(directory);
+        load();
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-compactor-" + directory.getFileName());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactQuietly, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Reads the latest value stored for a key.
+     *
+     * @param key The key to read.
+     * @return The value bytes, or null if the key is not in the store.
+     * @throws IOException If the segment holding the value cannot be read.
+     */
+    public byte[] read(String key) throws IOException {
+        return read(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the first bytes of the latest value stored for a key, so a header can be
+     * checked before the rest of the value is read.
+     *
+     * @param key    The key to read.
+     * @param length The number of bytes to read.
+     * @return The first {@code length} bytes of the value, or all of it if it is shorter,
+     *         or null if the key is not in the store.
+     * @throws IOException If the segment holding the value cannot be read.
+     */
+    public byte[] readPrefix(String key, int length) throws IOException {
+        return read(key, length);
+    }
+
+    private byte[] read(String key, int limit) throws IOException {
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(location.segmentId);
+            if (segment == null || segment.deleted) {
+                if (index.get(key) == location) {
+                    return null;
+                }
+                continue; // Moved by compaction, look it up again
+            }
+            try {
+                byte[] value = readValue(segment, location, limit);
+                location.lastAccess = System.currentTimeMillis();
+                return value;
+            } catch (ClosedChannelException e) {
+                if (segment.deleted) {
+                    continue;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                segment.reopenReader();
+            }
+        }
+    }
+
+    /**
+     * Appends a value for a key, replacing any earlier value.
+     *
+     * @param key   The key to write.
+     * @param value The value bytes.
+     * @throws IOException If the record cannot be appended.
+     */
+    public void write(String key, byte[] value) throws IOException {
+        write(key, value, null, 0);
+    }
+
+    /**
+     * Appends a value for a key together with the file it was derived from.
+     *
+     * @param key            The key to write.
+     * @param value          The value bytes.
+     * @param sourcePath     The absolute path of the source file, or null.
+     * @param sourceModified The last-modified time of the source file.
+     * @throws IOException If the record cannot be appended.
+     */
+    public void write(String key, byte[] value, String sourcePath, long sourceModified) throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            append(PUT, key, value, sourcePath, sourceModified, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Applies the puts and deletes of a batch in order, holding the write lock once for all of them.
+     *
+     * @param batch The operations to apply.
+     * @throws IOException If a record cannot be appended. Operations before it have been applied.
+     */
+    public void write(Batch batch) throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            long now = System.currentTimeMillis();
+            for (FooterEntry operation : batch.operations) {
+                if (operation.type == PUT) {
+                    append(PUT, operation.key, batch.values.get(operation.key), operation.sourcePath,
+                            operation.sourceModified, now);
+                } else if (index.containsKey(operation.key)) {
+                    append(DELETE, operation.key, null, null, 0, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a key. The space is reclaimed by a later compaction.
+     *
+     * @param key The key to delete.
+     * @throws IOException If the tombstone cannot be appended.
+     */
+    public void delete(String key) throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            if (index.containsKey(key)) {
+                append(DELETE, key, null, null, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * @return true if the store holds a value for the key.
+     */
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * @return A snapshot of all keys in the store.
+     */
+    public Set<String> keys() {
+        return new HashSet<>(index.keySet());
+    }
+
+    /**
+     * @return The metadata of a key, or null if the key is not in the store.
+     */
+    public EntryMetadata metadata(String key) {
+        Location location = index.get(key);
+        return location == null ? null : location.toMetadata(key);
+    }
+
+    /**
+     * @return A snapshot of the metadata of every entry, taken from the index alone.
+     */
+    public List<EntryMetadata> entries() {
+        List<EntryMetadata> entries = new ArrayList<>(index.size());
+        index.forEach((key, location) -> entries.add(location.toMetadata(key)));
+        return entries;
+    }
+
+    /**
+     * @return The number of keys in the store.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return The total size of all segment files, including dead records.
+     */
+    public long diskSize() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.size;
+        }
+        return total;
+    }
+
+    /**
+     * Removes every entry by deleting all segment files and starting a fresh segment.
+     *
+     * @throws IOException If a new segment cannot be created.
+     */
+    public void clear() throws IOException {
+        synchronized (writeLock) {
+            ensureOpen();
+            index.clear();
+            for (Segment segment : segments.values()) {
+                segment.delete();
+            }
+            segments.clear();
+            active = createSegment(active.id + 1);
+        }
+    }
+
+    /**
+     * @return The total size of the records that hold current values.
+     */
+    public long liveSize() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.liveBytes.get();
+        }
+        return total;
+    }
+
+    /**
+     * Sets the maximum total size of the segment files. It is enforced in the background,
+     * or immediately with {@link #enforceQuota()}.
+     *
+     * @param quotaBytes The quota in bytes, or 0 for none.
+     */
+    public void setQuota(long quotaBytes) {
+        this.quota = Math.max(0, quotaBytes);
+    }
+
+    /**
+     * @return The quota in bytes, or 0 if there is none.
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * If the segment files exceed the quota, deletes the least recently accessed entries
+     * until the live data fits below the low watermark, then compacts.
+     *
+     * @return The number of entries deleted.
+     * @throws IOException If a tombstone cannot be written or compaction fails.
+     */
+    public int enforceQuota() throws IOException {
+        long limit = quota;
+        if (limit <= 0 || diskSize() <= limit) {
+            return 0;
+        }
+        synchronized (maintenanceLock) {
+            long target = (long) (limit * QUOTA_LOW_WATERMARK);
+            long live = liveSize();
+            List<Map.Entry<String, Location>> candidates = new ArrayList<>(index.entrySet());
+            candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+
+            int evicted = 0;
+            for (Map.Entry<String, Location> candidate : candidates) {
+                if (live <= target || closed) {
+                    break;
+                }
+                synchronized (writeLock) {
+                    // Skip entries rewritten since the snapshot; their access time is newer
+                    if (!closed && index.get(candidate.getKey()) == candidate.getValue()) {
+                        append(DELETE, candidate.getKey(), null, null, 0, 0);
+                        live -= candidate.getValue().recordSize;
+                        evicted++;
+                    }
+                }
+            }
+
+            // Rewrite any segment that is not mostly live, so the files shrink to fit the live data
+            compact(QUOTA_LOW_WATERMARK);
+            return evicted;
+        }
+    }
+
+    /**
+     * Rewrites sealed segments whose live data has fallen below the compaction threshold.
+     *
+     * @return The number of segment files removed.
+     * @throws IOException If a segment cannot be read or the live records cannot be copied.
+     */
+    public int compact() throws IOException {
+        synchronized (maintenanceLock) {
+            return compact(COMPACTION_THRESHOLD);
+        }
+    }
+
+    private int compact(double threshold) throws IOException {
+        int removed = 0;
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (closed) {
+                break;
+            }
+            if (segment == active || segment.liveBytes.get() >= segment.size * threshold) {
+                continue;
+            }
+            boolean olderSegmentsExist = segments.firstKey() < segment.id;
+            for (FooterEntry entry : entriesOf(segment)) {
+                if (closed) {
+                    return removed;
+                }
+                if (entry.type == PUT) {
+                    Location location = index.get(entry.key);
+                    if (location == null || location.segmentId != segment.id || location.recordStart != entry.recordStart) {
+                        continue;
+                    }
+                    byte[] value = readValue(segment, location);
+                    synchronized (writeLock) {
+                        if (!closed && index.get(entry.key) == location) {
+                            append(PUT, entry.key, value, location.sourcePath, location.sourceModified,
+                                    location.lastAccess);
+                        }
+                    }
+                } else if (olderSegmentsExist) {
+                    // Carry the tombstone forward so an older value cannot come back on restart
+                    synchronized (writeLock) {
+                        if (!closed && !index.containsKey(entry.key)) {
+                            append(DELETE, entry.key, null, null, 0, 0);
+                        }
+                    }
+                }
+            }
+            segments.remove(segment.id, segment);
+            segment.delete();
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Stops compaction and seals the active segment so the next startup only reads footers.
+     */
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                seal(active);
+            } catch (IOException e) {
+                System.err.println("Failed to seal cache segment: " + active.path);
+            }
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        }
+    }
+
+    // --- Writing, guarded by writeLock ---
+
+    private void append(byte type, String key, byte[] value, String sourcePath, long sourceModified, long lastAccess)
+            throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] sourceBytes = sourcePath == null ? new byte[0] : sourcePath.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? 0 : value.length;
+        int recordSize = RECORD_OVERHEAD + keyBytes.length + sourceBytes.length + valueLength;
+
+        ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+        buffer.putInt(recordSize);
+        buffer.put(type);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.putShort((short) sourceBytes.length);
+        buffer.put(sourceBytes);
+        buffer.putLong(sourceModified);
+        buffer.putInt(valueLength);
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.flip();
+
+        long recordStart = active.size;
+        writeFully(active.writer, buffer, recordStart);
+        active.size += recordSize;
+        FooterEntry entry = new FooterEntry(type, key, sourcePath, sourceModified, lastAccess, recordStart, recordSize);
+        active.entries.add(entry);
+        apply(active, entry);
+
+        if (active.size >= maxSegmentSize) {
+            seal(active);
+            active = createSegment(active.id + 1);
+        }
+    }
+
+    private void apply(Segment segment, FooterEntry entry) {
+        Location previous;
+        if (entry.type == PUT) {
+            int headerLength = RECORD_OVERHEAD + utf8Length(entry.key) + utf8Length(entry.sourcePath);
+            Location location = new Location(segment.id, entry.recordStart, entry.recordSize,
+                    entry.recordStart + headerLength, entry.recordSize - headerLength,
+                    entry.sourcePath, entry.sourceModified, entry.lastAccess);
+            previous = index.put(entry.key, location);
+            segment.liveBytes.addAndGet(entry.recordSize);
+        } else {
+            previous = index.remove(entry.key);
+        }
+        if (previous != null) {
+            Segment previousSegment = segments.get(previous.segmentId);
+            if (previousSegment != null) {
+                previousSegment.liveBytes.addAndGet(-previous.recordSize);
+            }
+        }
+    }
+
+    private void seal(Segment segment) throws IOException {
+        if (segment.writer == null) {
+            return;
+        }
+        int footerSize = TRAILER_SIZE;
+        List<byte[]> keys = new ArrayList<>(segment.entries.size());
+        List<byte[]> sources = new ArrayList<>(segment.entries.size());
+        for (FooterEntry entry : segment.entries) {
+            byte[] keyBytes = entry.key.getBytes(StandardCharsets.UTF_8);
+            byte[] sourceBytes = entry.sourcePath == null ? new byte[0] : entry.sourcePath.getBytes(StandardCharsets.UTF_8);
+            keys.add(keyBytes);
+            sources.add(sourceBytes);
+            footerSize += 1 + 2 + keyBytes.length + 2 + sourceBytes.length + 8 + 8 + 8 + 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(footerSize);
+        for (int i = 0; i < segment.entries.size(); i++) {
+            FooterEntry entry = segment.entries.get(i);
+            // Persist the latest access time of records that are still live
+            long lastAccess = entry.lastAccess;
+            Location location = index.get(entry.key);
+            if (location != null && location.segmentId == segment.id && location.recordStart == entry.recordStart) {
+                lastAccess = location.lastAccess;
+            }
+            buffer.put(entry.type);
+            buffer.putShort((short) keys.get(i).length);
+            buffer.put(keys.get(i));
+            buffer.putShort((short) sources.get(i).length);
+            buffer.put(sources.get(i));
+            buffer.putLong(entry.sourceModified);
+            buffer.putLong(lastAccess);
+            buffer.putLong(entry.recordStart);
+            buffer.putInt(entry.recordSize);
+        }
+        buffer.putLong(segment.size);
+        buffer.putInt(segment.entries.size());
+        buffer.putInt(FOOTER_MAGIC);
+        buffer.flip();
+
+        writeFully(segment.writer, buffer, segment.size);
+        segment.writer.force(false);
+        segment.writer.close();
+        segment.writer = null;
+        segment.entries = null;
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Path path = directory.resolve(String.format("segment-%08d%s", id, SEGMENT_SUFFIX));
+        FileChannel writer = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(SEGMENT_MAGIC).putInt(FORMAT_VERSION).flip();
+        writeFully(writer, header, 0);
+
+        Segment segment = new Segment(id, path);
+        segment.writer = writer;
+        segment.entries = new ArrayList<>();
+        segment.size = HEADER_SIZE;
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Segment store is closed: " + directory);
+        }
+    }
+
+    // --- Loading ---
+
+    private void load() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+
+        long nextId = 1;
+        for (Path path : paths) {
+            long id;
+            try {
+                String name = path.getFileName().toString();
+                id = Long.parseLong(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            Segment segment = new Segment(id, path);
+            try {
+                if (!hasCurrentHeader(segment)) {
+                    System.err.println("Discarding cache segment with unknown format: " + path);
+                    segment.delete();
+                    continue;
+                }
+                segments.put(id, segment);
+                for (FooterEntry entry : entriesOf(segment)) {
+                    apply(segment, entry);
+                }
+            } catch (IOException e) {
+                System.err.println("Discarding unreadable cache segment: " + path);
+                segments.remove(id);
+                segment.delete();
+                continue;
+            }
+            nextId = id + 1;
+        }
+        active = createSegment(nextId);
+    }
+
+    private boolean hasCurrentHeader(Segment segment) throws IOException {
+        segment.size = Files.size(segment.path);
+        if (segment.size < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment.reader(), header, 0);
+        header.flip();
+        return header.getInt() == SEGMENT_MAGIC && header.getInt() == FORMAT_VERSION;
+    }
+
+    /**
+     * Lists the records of a segment from its footer, or by scanning it if it has none.
+     */
+    private List<FooterEntry> entriesOf(Segment segment) throws IOException {
+        List<FooterEntry> entries = readFooter(segment);
+        return entries != null ? entries : recover(segment);
+    }
+
+    /**
+     * Reads the footer of a sealed segment, or returns null if the segment has none.
+     */
+    private List<FooterEntry> readFooter(Segment segment) throws IOException {
+        if (segment.entries != null) {
+            return new ArrayList<>(segment.entries);
+        }
+        if (segment.size < HEADER_SIZE + TRAILER_SIZE) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(segment.reader(), trailer, segment.size - TRAILER_SIZE);
+        trailer.flip();
+        long footerStart = trailer.getLong();
+        int count = trailer.getInt();
+        if (trailer.getInt() != FOOTER_MAGIC || footerStart < HEADER_SIZE || footerStart > segment.size - TRAILER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate((int) (segment.size - TRAILER_SIZE - footerStart));
+        readFully(segment.reader(), footer, footerStart);
+        footer.flip();
+        List<FooterEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = footer.get();
+            String key = getString(footer);
+            String source = getString(footer);
+            entries.add(new FooterEntry(type, key, source.isEmpty() ? null : source,
+                    footer.getLong(), footer.getLong(), footer.getLong(), footer.getInt()));
+        }
+        return entries;
+    }
+
+    /**
+     * Rebuilds the entry list of a segment without a footer by scanning its records,
+     * ignoring a torn record at the end.
+     */
+    private List<FooterEntry> recover(Segment segment) throws IOException {
+        List<FooterEntry> entries = new ArrayList<>();
+        FileChannel channel = segment.reader();
+        // Without a footer the best guess for the access time is when the segment was last written
+        long lastAccess = Files.getLastModifiedTime(segment.path).toMillis();
+        long position = HEADER_SIZE;
+        ByteBuffer prefix = ByteBuffer.allocate(4 + 1 + 2);
+        while (position + RECORD_OVERHEAD <= segment.size) {
+            prefix.clear();
+            readFully(channel, prefix, position);
+            prefix.flip();
+            int recordSize = prefix.getInt();
+            byte type = prefix.get();
+            int keyLength = prefix.getShort() & 0xFFFF;
+            if (recordSize < RECORD_OVERHEAD + keyLength || position + recordSize > segment.size
+                    || (type != PUT && type != DELETE)) {
+                break;
+            }
+            ByteBuffer names = ByteBuffer.allocate(keyLength + 2);
+            readFully(channel, names, position + prefix.capacity());
+            names.flip();
+            byte[] key = new byte[keyLength];
+            names.get(key);
+            int sourceLength = names.getShort() & 0xFFFF;
+            if (recordSize < RECORD_OVERHEAD + keyLength + sourceLength) {
+                break;
+            }
+            ByteBuffer source = ByteBuffer.allocate(sourceLength + 8);
+            readFully(channel, source, position + prefix.capacity() + names.capacity());
+            source.flip();
+            String sourcePath = sourceLength == 0 ? null : getString(source, sourceLength);
+            entries.add(new FooterEntry(type, new String(key, StandardCharsets.UTF_8), sourcePath, source.getLong(),
+                    lastAccess, position, recordSize));
+            position += recordSize;
+        }
+        // Only whole records count towards the segment size
+        segment.size = position;
+        return entries;
+    }
+
+    // --- Helpers ---
+
+    private byte[] readValue(Segment segment, Location location) throws IOException {
+        return readValue(segment, location, location.valueLength);
+    }
+
+    private byte[] readValue(Segment segment, Location location, int limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(location.valueLength, limit));
+        readFully(segment.reader(), buffer, location.valueOffset);
+        return buffer.array();
+    }
+
+    private void compactQuietly() {
+        try {
+            enforceQuota();
+            compact();
+        } catch (IOException e) {
+            System.err.println("Cache compaction failed for " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        return getString(buffer, buffer.getShort() & 0xFFFF);
+    }
+
+    private static String getString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String value) {
+        return value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of cache segment");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * A group of puts and deletes to apply with {@link #write(Batch)}.
+     */
+    public static final class Batch {
+        private final List<FooterEntry> operations = new ArrayList<>();
+        private final Map<String, byte[]> values = new HashMap<>();
+
+        /**
+         * Adds a put. A later operation for the same key in this batch wins.
+         */
+        public void put(String key, byte[] value, String sourcePath, long sourceModified) {
+            operations.add(new FooterEntry(PUT, key, sourcePath, sourceModified, 0, 0, 0));
+            values.put(key, value);
+        }
+
+        /**
+         * Adds a delete.
+         */
+        public void delete(String key) {
+            operations.add(new FooterEntry(DELETE, key, null, 0, 0, 0, 0));
+        }
+
+        public int size() {
+            return operations.size();
+        }
+    }
+
+    private static final class Location {
+        final long segmentId;
+        final long recordStart;
+        final int recordSize;
+        final long valueOffset;
+        final int valueLength;
+        final String sourcePath;
+        final long sourceModified;
+        volatile long lastAccess;
+
+        Location(long segmentId, long recordStart, int recordSize, long valueOffset, int valueLength,
+                 String sourcePath, long sourceModified, long lastAccess) {
+            this.segmentId = segmentId;
+            this.recordStart = recordStart;
+            this.recordSize = recordSize;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.sourcePath = sourcePath;
+            this.sourceModified = sourceModified;
+            this.lastAccess = lastAccess;
+        }
+
+        EntryMetadata toMetadata(String key) {
+            return new EntryMetadata(key, sourcePath, sourceModified, valueLength, lastAccess);
+        }
+    }
+
+    private record FooterEntry(byte type, String key, String sourcePath, long sourceModified, long lastAccess,
+                               long recordStart, int recordSize) {
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final AtomicLong liveBytes = new AtomicLong();
+        volatile long size;
+        volatile boolean deleted;
+        // Only set while the segment is active
+        FileChannel writer;
+        List<FooterEntry> entries;
+        private volatile FileChannel reader;
+
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        FileChannel reader() throws IOException {
+            FileChannel channel = reader;
+            if (channel == null) {
+                synchronized (this) {
+                    if (reader == null) {
+                        reader = FileChannel.open(path, StandardOpenOption.READ);
+                    }
+                    channel = reader;
+                }
+            }
+            return channel;
+        }
+
+        /**
+         * Replaces a read channel that was closed because a reading thread was interrupted.
+         */
+        synchronized void reopenReader() throws IOException {
+            if (!deleted && (reader == null || !reader.isOpen())) {
+                reader = FileChannel.open(path, StandardOpenOption.READ);
+            }
+        }
+
+        synchronized void close() {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+
+        void delete() {
+            deleted = true;
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Failed to delete cache segment: " + path);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.photoshelf.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * A codec that uses Java serialization. It works for any {@link Serializable} value but
+ * is bulky, slow to decode and tied to the class versions that wrote it.
+ *
+ * @param <V> The type of the values.
+ */
+public class SerializingCodec<V extends Serializable> implements ValueCodec<V> {
+    public static final byte ID = 0;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(V value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V decode(byte[] data) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (V) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Cannot deserialize cache entry", e);
+        }
+    }
+}
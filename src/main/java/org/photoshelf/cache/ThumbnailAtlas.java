@@ -0,0 +1,514 @@
+package org.photoshelf.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * A memory-mapped file holding the display-ready thumbnails of one directory at one
+ * thumbnail size.
+ * <p>
+ * Pixels are stored as raw ARGB ints, followed by an offset table that maps each file
+ * name to its modification time, dimensions and pixel offset. Opening the atlas maps the
+ * whole file once; a thumbnail is then a bulk copy from the mapping into a new
+ * {@link BufferedImage} with no per-entry I/O or deserialization.
+ * <p>
+ * New thumbnails are buffered and appended by {@link #flush()}: pixels and a new offset
+ * table go after the current end of the file and the header is rewritten last, so a
+ * crash leaves the previous table intact. The file is rewritten once more than half of
+ * it is dead space.
+ * <p>
+ * All atlases together are kept within a disk quota, 1 GB by default or
+ * {@code -Dphotoshelf.thumbnailAtlas.diskQuotaMB} (0 means unlimited). Opening or writing
+ * an atlas touches its file, and the least recently used atlases are deleted when the
+ * quota is exceeded. The table records the directory an atlas belongs to, so
+ * {@link #deleteAtlases} can remove atlases whose directory is gone.
+ * <p>
+ * File layout:
+ * <pre>
+ * header := int magic, int version, int thumbnailSize, int entryCount, long tableOffset, long reserved
+ * pixels := int argb[width * height]   (per entry)
+ * table  := short directoryLength, directory,
+ *           (short nameLength, name, long lastModified, int width, int height, long pixelOffset)*
+ * </pre>
+ */
+public class ThumbnailAtlas {
+    private static final int MAGIC = 0x50534154; // "PSAT"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+    private static final long PENDING_FLUSH_BYTES = 16L * 1024 * 1024;
+    private static final Path ATLAS_DIR = Path.of(System.getProperty("user.home"), ".photoshelf_cache", "atlas");
+    private static final String SUFFIX = ".atlas";
+    private static final long DISK_QUOTA =
+            Math.max(0, Long.getLong("photoshelf.thumbnailAtlas.diskQuotaMB", 1024)) * 1024 * 1024;
+    private static final ExecutorService FLUSHER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "thumbnail-atlas-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File directory;
+    private final int thumbnailSize;
+    private final Path path;
+    private volatile View view = new View(null, Collections.emptyMap());
+
+    // Thumbnails waiting to be appended, guarded by this
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private long pendingBytes;
+
+    private ThumbnailAtlas(File directory, int thumbnailSize) {
+        this.directory = directory.getAbsoluteFile();
+        this.thumbnailSize = thumbnailSize;
+        this.path = ATLAS_DIR.resolve(atlasPrefix(this.directory) + thumbnailSize + SUFFIX);
+    }
+
+    /**
+     * @return true unless atlases are turned off with {@code -Dphotoshelf.thumbnailAtlas=false}.
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty("photoshelf.thumbnailAtlas", "true"));
+    }
+
+    /**
+     * Opens the atlas of a directory at a thumbnail size, mapping it if it exists.
+     * Atlases of the same directory at other sizes are deleted, and the least recently used
+     * atlases of other directories if they exceed the quota. An unreadable atlas is
+     * discarded and rebuilt as thumbnails are added.
+     *
+     * @param directory     The directory whose thumbnails the atlas holds.
+     * @param thumbnailSize The thumbnail bounding box size.
+     * @return The atlas, never null.
+     */
+    public static ThumbnailAtlas open(File directory, int thumbnailSize) {
+        ThumbnailAtlas atlas = new ThumbnailAtlas(directory, thumbnailSize);
+        try {
+            Files.createDirectories(ATLAS_DIR);
+            atlas.deleteOtherSizes();
+            if (Files.exists(atlas.path)) {
+                Files.setLastModifiedTime(atlas.path, FileTime.fromMillis(System.currentTimeMillis()));
+                atlas.load();
+            }
+            FLUSHER.submit(() -> enforceQuota(atlas.path));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Discarding unreadable thumbnail atlas: " + atlas.path);
+            try {
+                Files.deleteIfExists(atlas.path);
+            } catch (IOException deleteException) {
+                // Ignore
+            }
+        }
+        return atlas;
+    }
+
+    /**
+     * @return true if this atlas holds thumbnails for the file at the given size.
+     */
+    public boolean covers(File file, int width, int height) {
+        return width == thumbnailSize && height == thumbnailSize
+                && directory.equals(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Returns the thumbnail of a file, or null if the atlas has none or the file has
+     * been modified since the thumbnail was stored.
+     *
+     * @param file The file whose thumbnail to return.
+     * @return A new image holding a copy of the stored pixels, or null.
+     */
+    public BufferedImage get(File file) {
+        return get(file.getName(), file.lastModified());
+    }
+
+    /**
+     * Returns the thumbnail stored for a file name and modification time, without
+     * checking the file itself.
+     *
+     * @param name         The name of the file within the directory.
+     * @param lastModified The modification time the thumbnail must have been stored for.
+     * @return A new image holding a copy of the stored pixels, or null.
+     */
+    public BufferedImage get(String name, long lastModified) {
+        synchronized (this) {
+            Pending entry = pending.get(name);
+            if (entry != null && entry.lastModified == lastModified) {
+                return toImage(IntBuffer.wrap(entry.pixels), entry.width, entry.height);
+            }
+        }
+
+        View current = view;
+        Entry entry = current.entries.get(name);
+        if (entry == null || entry.lastModified != lastModified) {
+            return null;
+        }
+        int length = entry.width * entry.height * 4;
+        IntBuffer pixels = current.buffer.slice((int) entry.pixelOffset, length).asIntBuffer();
+        return toImage(pixels, entry.width, entry.height);
+    }
+
+    /**
+     * Checks for a thumbnail from the index alone, without copying its pixels.
+     *
+     * @param name         The name of the file within the directory.
+     * @param lastModified The modification time the thumbnail must have been stored for.
+     * @return true if {@link #get(String, long)} would return the thumbnail.
+     */
+    public boolean contains(String name, long lastModified) {
+        synchronized (this) {
+            Pending entry = pending.get(name);
+            if (entry != null && entry.lastModified == lastModified) {
+                return true;
+            }
+        }
+        Entry entry = view.entries.get(name);
+        return entry != null && entry.lastModified == lastModified;
+    }
+
+    /**
+     * Queues a thumbnail to be appended on the next flush. A background flush starts once
+     * enough pixel data is queued.
+     *
+     * @param file  The file the thumbnail belongs to.
+     * @param image The display-ready thumbnail.
+     */
+    public void add(File file, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        boolean flushNow;
+        synchronized (this) {
+            Pending previous = pending.put(file.getName(), new Pending(file.lastModified(), width, height, pixels));
+            if (previous != null) {
+                pendingBytes -= 4L * previous.pixels.length;
+            }
+            pendingBytes += 4L * pixels.length;
+            flushNow = pendingBytes >= PENDING_FLUSH_BYTES;
+        }
+        if (flushNow) {
+            flushAsync();
+        }
+    }
+
+    /**
+     * Appends all queued thumbnails to the file and remaps it.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Starts over if the file was deleted to stay within the quota
+        Map<String, Entry> entries = Files.exists(path) ? new HashMap<>(view.entries) : new HashMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long position = Math.max(channel.size(), HEADER_SIZE);
+            for (Map.Entry<String, Pending> added : pending.entrySet()) {
+                Pending thumbnail = added.getValue();
+                long length = 4L * thumbnail.pixels.length;
+                if (position + length > MAX_FILE_SIZE / 2) {
+                    break; // Leave room for the table; the rest stays in the HybridCache only
+                }
+                ByteBuffer buffer = ByteBuffer.allocate((int) length);
+                buffer.asIntBuffer().put(thumbnail.pixels);
+                writeFully(channel, buffer, position);
+                entries.put(added.getKey(), new Entry(thumbnail.lastModified, thumbnail.width, thumbnail.height, position));
+                position += length;
+            }
+            writeTableAndHeader(channel, entries, position);
+            view = new View(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), entries);
+        } catch (IOException e) {
+            System.err.println("Failed to update thumbnail atlas " + path + ": " + e.getMessage());
+        } finally {
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        if (deadBytes() > liveBytes()) {
+            rewrite();
+        }
+        enforceQuota(path);
+    }
+
+    /**
+     * Flushes queued thumbnails on a background thread.
+     */
+    public void flushAsync() {
+        FLUSHER.submit(this::flush);
+    }
+
+    /**
+     * Deletes the atlases of directories that are gone, and atlases whose directory cannot
+     * be read from the file, such as those of an older format.
+     *
+     * @param isGone Returns true for the absolute paths of directories that no longer exist.
+     * @return The number of atlases deleted.
+     */
+    public static int deleteAtlases(Predicate<String> isGone) {
+        Map<Path, String> atlases = listAtlases();
+        int deleted = 0;
+        for (Map.Entry<Path, String> atlas : atlases.entrySet()) {
+            if (atlas.getValue() == null || isGone.test(atlas.getValue())) {
+                try {
+                    Files.deleteIfExists(atlas.getKey());
+                    deleted++;
+                } catch (IOException e) {
+                    System.err.println("Failed to delete thumbnail atlas " + atlas.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return The directory of every atlas file, or null for those it cannot be read from.
+     */
+    public static Map<Path, String> listAtlases() {
+        Map<Path, String> atlases = new HashMap<>();
+        if (!Files.isDirectory(ATLAS_DIR)) {
+            return atlases;
+        }
+        try (Stream<Path> files = Files.list(ATLAS_DIR)) {
+            files.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .forEach(p -> atlases.put(p, readDirectory(p)));
+        } catch (IOException e) {
+            System.err.println("Failed to list thumbnail atlases: " + e.getMessage());
+        }
+        return atlases;
+    }
+
+    // --- Private Helper Methods ---
+
+    private void load() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != thumbnailSize) {
+                throw new IOException("Unknown atlas format");
+            }
+            int count = buffer.getInt(12);
+            ByteBuffer table = buffer.duplicate().position((int) buffer.getLong(16));
+            int directoryLength = table.getShort() & 0xFFFF;
+            table.position(table.position() + directoryLength); // Only read by listAtlases()
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[table.getShort() & 0xFFFF];
+                table.get(name);
+                entries.put(new String(name, StandardCharsets.UTF_8),
+                        new Entry(table.getLong(), table.getInt(), table.getInt(), table.getLong()));
+            }
+            view = new View(buffer, entries);
+        }
+    }
+
+    private void writeTableAndHeader(FileChannel channel, Map<String, Entry> entries, long tableOffset) throws IOException {
+        byte[] directoryName = directory.getPath().getBytes(StandardCharsets.UTF_8);
+        int tableSize = 2 + directoryName.length;
+        Map<byte[], Entry> encoded = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            encoded.put(name, entry.getValue());
+            tableSize += 2 + name.length + 8 + 4 + 4 + 8;
+        }
+        ByteBuffer table = ByteBuffer.allocate(tableSize);
+        table.putShort((short) directoryName.length).put(directoryName);
+        for (Map.Entry<byte[], Entry> entry : encoded.entrySet()) {
+            Entry value = entry.getValue();
+            table.putShort((short) entry.getKey().length).put(entry.getKey());
+            table.putLong(value.lastModified).putInt(value.width).putInt(value.height).putLong(value.pixelOffset);
+        }
+        table.flip();
+        writeFully(channel, table, tableOffset);
+        channel.truncate(tableOffset + tableSize);
+        channel.force(false);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(thumbnailSize).putInt(entries.size()).putLong(tableOffset).putLong(0);
+        header.flip();
+        writeFully(channel, header, 0);
+        channel.force(false);
+    }
+
+    /**
+     * Copies the live thumbnails into a fresh file and swaps it in.
+     */
+    private void rewrite() {
+        View current = view;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Map<String, Entry> entries = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            for (Map.Entry<String, Entry> entry : current.entries.entrySet()) {
+                Entry value = entry.getValue();
+                int length = value.width * value.height * 4;
+                writeFully(channel, current.buffer.slice((int) value.pixelOffset, length), position);
+                entries.put(entry.getKey(), new Entry(value.lastModified, value.width, value.height, position));
+                position += length;
+            }
+            writeTableAndHeader(channel, entries, position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            view = new View(buffer, entries);
+        } catch (IOException e) {
+            System.err.println("Failed to rewrite thumbnail atlas " + path + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException deleteException) {
+                // Ignore
+            }
+        }
+    }
+
+    private long liveBytes() {
+        long live = 0;
+        for (Entry entry : view.entries.values()) {
+            live += 4L * entry.width * entry.height;
+        }
+        return live;
+    }
+
+    private long deadBytes() {
+        View current = view;
+        if (current.buffer == null) {
+            return 0;
+        }
+        long tableOffset = current.buffer.getLong(16);
+        return tableOffset - HEADER_SIZE - liveBytes();
+    }
+
+    private void deleteOtherSizes() throws IOException {
+        String prefix = atlasPrefix(directory);
+        String ownName = path.getFileName().toString();
+        try (Stream<Path> files = Files.list(ATLAS_DIR)) {
+            files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(prefix) && !name.equals(ownName);
+            }).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    // Ignore, the file may be mapped by another view
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the least recently used atlases until all of them fit the quota. The atlas in
+     * use is never deleted.
+     */
+    private static void enforceQuota(Path inUse) {
+        if (DISK_QUOTA == 0) {
+            return;
+        }
+        List<Path> atlases = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        long total = 0;
+        try (Stream<Path> files = Files.list(ATLAS_DIR)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(SUFFIX)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    attributes.put(file, attrs);
+                    atlases.add(file);
+                    total += attrs.size();
+                } catch (IOException e) {
+                    // Deleted meanwhile
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list thumbnail atlases: " + e.getMessage());
+            return;
+        }
+        atlases.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        for (Path file : atlases) {
+            if (total <= DISK_QUOTA) {
+                break;
+            }
+            if (file.equals(inUse)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(file);
+                total -= attributes.get(file).size();
+            } catch (IOException e) {
+                // Ignore, the file may be mapped by another view
+            }
+        }
+    }
+
+    /**
+     * @return The directory recorded in an atlas file, or null if the file is not an atlas
+     *         of the current format.
+     */
+    private static String readDirectory(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                return null;
+            }
+            long tableOffset = header.getLong(16);
+            ByteBuffer length = ByteBuffer.allocate(2);
+            if (channel.read(length, tableOffset) < 2) {
+                return null;
+            }
+            ByteBuffer name = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+            if (channel.read(name, tableOffset + 2) < name.capacity()) {
+                return null;
+            }
+            return new String(name.array(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String atlasPrefix(File directory) {
+        return UUID.nameUUIDFromBytes(directory.getPath().getBytes(StandardCharsets.UTF_8)) + "_";
+    }
+
+    private static BufferedImage toImage(IntBuffer source, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        source.get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        return image;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private record View(MappedByteBuffer buffer, Map<String, Entry> entries) {
+    }
+
+    private record Entry(long lastModified, int width, int height, long pixelOffset) {
+    }
+
+    private record Pending(long lastModified, int width, int height, int[] pixels) {
+    }
+}
@@ -0,0 +1,37 @@
+package org.photoshelf.cache;
+
+import java.io.IOException;
+
+/**
+ * Converts cache values to and from the bytes stored in the disk tier.
+ * <p>
+ * Every codec has a unique id that is stored with each entry, so entries written by a
+ * different codec are detected and treated as misses instead of being misread.
+ *
+ * @param <V> The type of the values.
+ */
+public interface ValueCodec<V> {
+
+    /**
+     * @return The unique id of this codec's format.
+     */
+    byte id();
+
+    /**
+     * Encodes a value.
+     *
+     * @param value The value to encode.
+     * @return The encoded bytes.
+     * @throws IOException If the value cannot be encoded.
+     */
+    byte[] encode(V value) throws IOException;
+
+    /**
+     * Decodes a value.
+     *
+     * @param data Bytes produced by {@link #encode(Object)}.
+     * @return The decoded value.
+     * @throws IOException If the bytes are corrupt or not in this codec's format.
+     */
+    V decode(byte[] data) throws IOException;
+}
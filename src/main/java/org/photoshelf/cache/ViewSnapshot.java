@@ -0,0 +1,244 @@
+package org.photoshelf.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact record of the grid that was on screen when the application last closed, so
+ * the next start can paint it before listing the directory.
+ * <p>
+ * The snapshot holds the directory, the settings the grid was built with and, in display
+ * order, each file's size, modification time and content fingerprint. Thumbnails are not
+ * copied: they are referenced through the directory's {@link ThumbnailAtlas} by file name
+ * and modification time, and through the thumbnail cache by fingerprint. The file is
+ * memory-mapped when read and replaced atomically when written.
+ * <p>
+ * File layout:
+ * <pre>
+ * header := int magic, int version, int thumbnailSize, int flags, int entryCount,
+ *           string directory, string sortCriteria, string filterText
+ * entry  := string name, long length, long lastModified, string fingerprint
+ * string := short length, byte utf8[length]
+ * </pre>
+ */
+public class ViewSnapshot {
+    private static final int MAGIC = 0x50535653; // "PSVS"
+    private static final int VERSION = 1;
+    private static final int FLAG_DESCENDING = 1;
+    private static final Path SNAPSHOT_FILE = Path.of(System.getProperty("user.home"), ".photoshelf_cache", "last_view.snapshot");
+
+    /**
+     * One file of the grid.
+     */
+    public static final class Entry {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final String fingerprint;
+
+        public Entry(File file, long length, long lastModified, String fingerprint) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return The content fingerprint of the file, or null if it was not known.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return true if the file still has the recorded size and modification time.
+         */
+        public boolean isCurrent() {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    private final File directory;
+    private final int thumbnailSize;
+    private final String sortCriteria;
+    private final boolean sortDescending;
+    private final String filterText;
+    private final List<Entry> entries;
+
+    public ViewSnapshot(File directory, int thumbnailSize, String sortCriteria, boolean sortDescending,
+                        String filterText, List<Entry> entries) {
+        this.directory = directory.getAbsoluteFile();
+        this.thumbnailSize = thumbnailSize;
+        this.sortCriteria = sortCriteria;
+        this.sortDescending = sortDescending;
+        this.filterText = filterText;
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Reads the last saved snapshot.
+     *
+     * @return The snapshot, or null if there is none or it cannot be read.
+     */
+    public static ViewSnapshot load() {
+        if (!Files.exists(SNAPSHOT_FILE)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(SNAPSHOT_FILE, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            int thumbnailSize = buffer.getInt();
+            int flags = buffer.getInt();
+            int count = buffer.getInt();
+            File directory = new File(readString(buffer));
+            String sortCriteria = readString(buffer);
+            String filterText = readString(buffer);
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                File file = new File(directory, readString(buffer));
+                long length = buffer.getLong();
+                long lastModified = buffer.getLong();
+                String fingerprint = readString(buffer);
+                entries.add(new Entry(file, length, lastModified, fingerprint.isEmpty() ? null : fingerprint));
+            }
+            return new ViewSnapshot(directory, thumbnailSize, sortCriteria, (flags & FLAG_DESCENDING) != 0,
+                    filterText, entries);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Discarding unreadable view snapshot: " + e.getMessage());
+            delete();
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the saved snapshot, if any.
+     */
+    public static void delete() {
+        try {
+            Files.deleteIfExists(SNAPSHOT_FILE);
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Writes this snapshot, replacing the previous one. Entries outside the directory are skipped.
+     */
+    public void save() {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 5 * 4;
+        for (String value : new String[]{directory.getPath(), sortCriteria, filterText}) {
+            size += addString(strings, value);
+        }
+        int count = 0;
+        for (Entry entry : entries) {
+            if (!directory.equals(entry.file.getAbsoluteFile().getParentFile())) {
+                continue;
+            }
+            size += addString(strings, entry.file.getName()) + 8 + 8
+                    + addString(strings, entry.fingerprint == null ? "" : entry.fingerprint);
+            count++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(thumbnailSize).putInt(sortDescending ? FLAG_DESCENDING : 0).putInt(count);
+        int next = 0;
+        for (int i = 0; i < 3; i++) {
+            putString(buffer, strings.get(next++));
+        }
+        for (Entry entry : entries) {
+            if (!directory.equals(entry.file.getAbsoluteFile().getParentFile())) {
+                continue;
+            }
+            putString(buffer, strings.get(next++));
+            buffer.putLong(entry.length).putLong(entry.lastModified);
+            putString(buffer, strings.get(next++));
+        }
+        buffer.flip();
+
+        Path temp = SNAPSHOT_FILE.resolveSibling(SNAPSHOT_FILE.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(SNAPSHOT_FILE.getParent());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, SNAPSHOT_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save view snapshot: " + e.getMessage());
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    public String getSortCriteria() {
+        return sortCriteria;
+    }
+
+    public boolean isSortDescending() {
+        return sortDescending;
+    }
+
+    public String getFilterText() {
+        return filterText;
+    }
+
+    /**
+     * @return The files of the grid in display order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    private static int addString(List<byte[]> strings, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String too long for a snapshot: " + value.length());
+        }
+        strings.add(bytes);
+        return 2 + bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,471 @@
+package org.photoshelf.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A concurrent in-memory cache bounded by total entry weight and evicted with the
+ * W-TinyLFU policy.
+ * <p>
+ * New entries land in a small LRU admission window (1% of the budget). Entries pushed
+ * out of the window compete with the least recently used entry of the main space, and
+ * whichever has been accessed more often according to a {@link FrequencySketch} stays.
+ * The main space is a segmented LRU: entries that are hit again while on probation are
+ * promoted to the protected segment (80% of the main space).
+ * <p>
+ * Reads never block. {@link #get(Object)} is a plain {@link ConcurrentHashMap} lookup
+ * that records the access in a lossy, striped ring buffer; the policy is updated in
+ * batches by whichever thread manages to {@code tryLock} the eviction lock. Writes take
+ * the eviction lock so that the budget is enforced before {@link #put} returns. An optional
+ * listener is told about entries evicted for size, after the lock is released.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class WTinyLfuCache<K, V> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int DEAD = 3;
+
+    private static final double WINDOW_PERCENT = 0.01;
+    private static final double PROTECTED_PERCENT = 0.80;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final Weigher<? super K, ? super V> weigher;
+    private final BiConsumer<? super K, ? super V> evictionListener;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+    private final FrequencySketch<K> sketch = new FrequencySketch<>();
+
+    // Policy state, guarded by evictionLock
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedQueue = new AccessOrderDeque<>();
+    private final long maximumWeight;
+    private final long maximumWindowWeight;
+    private final long maximumProtectedWeight;
+    private final List<Node<K, V>> evicted = new ArrayList<>();
+    private long windowWeight;
+    private long protectedWeight;
+    private volatile long weightedSize;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumWeight The maximum total weight of the cached entries.
+     * @param weigher       Calculates the weight of each entry.
+     */
+    public WTinyLfuCache(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+        this(maximumWeight, weigher, null);
+    }
+
+    /**
+     * Creates a new cache that reports entries evicted for size.
+     *
+     * @param maximumWeight    The maximum total weight of the cached entries.
+     * @param weigher          Calculates the weight of each entry.
+     * @param evictionListener Called with each entry evicted to make room, or null. Runs on the
+     *                         thread that called {@link #put}, outside the eviction lock.
+     */
+    public WTinyLfuCache(long maximumWeight, Weigher<? super K, ? super V> weigher,
+                         BiConsumer<? super K, ? super V> evictionListener) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight must not be negative");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        this.maximumWindowWeight = Math.max(1, (long) (maximumWeight * WINDOW_PERCENT));
+        this.maximumProtectedWeight = (long) ((maximumWeight - maximumWindowWeight) * PROTECTED_PERCENT);
+        sketch.ensureCapacity(Math.min(maximumWeight, 1024));
+    }
+
+    /**
+     * Returns the value for a key, or null if it is not cached. Never blocks.
+     *
+     * @param key The key to look up.
+     * @return The cached value, or null.
+     */
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (readBuffer.offer(node)) {
+            tryDrain();
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces an entry and evicts entries until the cache fits its budget.
+     * An entry that is heavier than the whole budget is not cached.
+     *
+     * @param key   The key of the entry.
+     * @param value The value of the entry.
+     */
+    public void put(K key, V value) {
+        int weight = weigher.weigh(key, value);
+        List<Node<K, V>> notifications;
+        evictionLock.lock();
+        try {
+            if (weight > maximumWeight) {
+                removeNode(data.remove(key));
+                return;
+            }
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                node.value = value;
+                int delta = weight - node.weight;
+                node.weight = weight;
+                if (node.queue == WINDOW) {
+                    windowWeight += delta;
+                } else if (node.queue == PROTECTED) {
+                    protectedWeight += delta;
+                }
+                weightedSize += delta;
+                onAccess(node);
+            } else {
+                node = new Node<>(key, value, weight);
+                data.put(key, node);
+                window.addLast(node);
+                windowWeight += weight;
+                weightedSize += weight;
+                if (data.size() > sketch.tableSize()) {
+                    sketch.ensureCapacity(data.size());
+                }
+                sketch.increment(key);
+            }
+            drainReadBuffer();
+            evictEntries();
+            notifications = takeEvicted();
+        } finally {
+            evictionLock.unlock();
+        }
+        for (Node<K, V> node : notifications) {
+            evictionListener.accept(node.key, node.value);
+        }
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key The key of the entry to remove.
+     */
+    public void remove(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            removeNode(node);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries. Access frequencies are kept.
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            for (K key : data.keySet()) {
+                removeNode(data.remove(key));
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of cached entries.
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return The total weight of the cached entries.
+     */
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    /**
+     * @return The maximum total weight of the cached entries.
+     */
+    public long maximumWeight() {
+        return maximumWeight;
+    }
+
+    // --- Policy, guarded by evictionLock ---
+
+    private void tryDrain() {
+        if (evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        readBuffer.drainTo(this::onAccess);
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == DEAD) {
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == WINDOW) {
+            window.moveToBack(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedQueue.addLast(node);
+            protectedWeight += node.weight;
+            demoteFromProtected();
+        } else {
+            protectedQueue.moveToBack(node);
+        }
+    }
+
+    private void demoteFromProtected() {
+        while (protectedWeight > maximumProtectedWeight) {
+            Node<K, V> demoted = protectedQueue.pollFirst();
+            if (demoted == null) {
+                return;
+            }
+            protectedWeight -= demoted.weight;
+            demoted.queue = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void evictEntries() {
+        // Entries leaving the window become candidates for the main space
+        Node<K, V> candidate = null;
+        while (windowWeight > maximumWindowWeight) {
+            Node<K, V> node = window.pollFirst();
+            if (node == null) {
+                break;
+            }
+            windowWeight -= node.weight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        while (weightedSize > maximumWeight) {
+            Node<K, V> victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protectedQueue.peekFirst();
+            }
+            if (victim == null) {
+                victim = window.peekFirst();
+            }
+            if (victim == null) {
+                return;
+            }
+
+            if (candidate == null || candidate == victim || candidate.queue != PROBATION) {
+                if (candidate == victim) {
+                    candidate = victim.next;
+                }
+                evict(victim);
+            } else if (admit(candidate.key, victim.key)) {
+                evict(victim);
+            } else {
+                Node<K, V> rejected = candidate;
+                candidate = candidate.next;
+                evict(rejected);
+            }
+        }
+    }
+
+    private boolean admit(K candidateKey, K victimKey) {
+        int candidateFrequency = sketch.frequency(candidateKey);
+        int victimFrequency = sketch.frequency(victimKey);
+        if (candidateFrequency > victimFrequency) {
+            return true;
+        } else if (candidateFrequency <= 5) {
+            return false;
+        }
+        // Admit a warm candidate now and then so an attacker cannot pin the victim
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private void evict(Node<K, V> node) {
+        data.remove(node.key, node);
+        removeNode(node);
+        if (evictionListener != null) {
+            evicted.add(node);
+        }
+    }
+
+    private List<Node<K, V>> takeEvicted() {
+        if (evicted.isEmpty()) {
+            return List.of();
+        }
+        List<Node<K, V>> nodes = new ArrayList<>(evicted);
+        evicted.clear();
+        return nodes;
+    }
+
+    private void removeNode(Node<K, V> node) {
+        if (node == null || node.queue == DEAD) {
+            return;
+        }
+        if (node.queue == WINDOW) {
+            window.remove(node);
+            windowWeight -= node.weight;
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else {
+            protectedQueue.remove(node);
+            protectedWeight -= node.weight;
+        }
+        weightedSize -= node.weight;
+        node.queue = DEAD;
+    }
+
+    // --- Internal data structures ---
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        int weight;
+        int queue = WINDOW;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes in access order, least recently used first.
+     */
+    private static final class AccessOrderDeque<K, V> {
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+    }
+
+    /**
+     * A lossy, striped buffer of recent reads. Writers claim a slot with a CAS on their
+     * stripe and silently drop the access when the stripe is full; the policy only needs
+     * a representative sample.
+     */
+    private static final class ReadBuffer<E> {
+        private static final int BUFFER_SIZE = 32;
+        private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+        private static final int STRIPES = Math.min(64,
+                Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2);
+
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPES * BUFFER_SIZE);
+        private final AtomicLongArray writeCounts = new AtomicLongArray(STRIPES);
+        private final AtomicLongArray readCounts = new AtomicLongArray(STRIPES);
+
+        /**
+         * Records an element.
+         *
+         * @return true if the stripe is filling up and should be drained.
+         */
+        boolean offer(E element) {
+            int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            long head = readCounts.get(stripe);
+            long tail = writeCounts.get(stripe);
+            long pending = tail - head;
+            if (pending >= BUFFER_SIZE) {
+                return true;
+            }
+            if (writeCounts.compareAndSet(stripe, tail, tail + 1)) {
+                slots.lazySet(stripe * BUFFER_SIZE + (int) (tail & (BUFFER_SIZE - 1)), element);
+            }
+            return pending + 1 >= DRAIN_THRESHOLD;
+        }
+
+        /**
+         * Hands every buffered element to the consumer. Must be called by one thread at a time.
+         */
+        void drainTo(java.util.function.Consumer<E> consumer) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                long head = readCounts.get(stripe);
+                long tail = writeCounts.get(stripe);
+                for (; head < tail; head++) {
+                    int index = stripe * BUFFER_SIZE + (int) (head & (BUFFER_SIZE - 1));
+                    E element = slots.get(index);
+                    if (element == null) {
+                        // The writer claimed the slot but has not published yet
+                        break;
+                    }
+                    slots.lazySet(index, null);
+                    consumer.accept(element);
+                }
+                readCounts.lazySet(stripe, head);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.photoshelf.cache;
+
+import javax.swing.ImageIcon;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+
+/**
+ * Calculates the weight of a cache entry, which for the thumbnail caches is an
+ * estimate of the number of heap bytes the value keeps alive.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * Returns the weight of an entry. Must be non-negative and should stay the same
+     * for as long as the entry is cached.
+     *
+     * @param key   The key of the entry.
+     * @param value The value of the entry.
+     * @return The weight of the entry.
+     */
+    int weigh(K key, V value);
+
+    /**
+     * A weigher that gives every entry a weight of one, which turns a weight budget
+     * into an entry count.
+     */
+    static <K, V> Weigher<K, V> singleton() {
+        return (key, value) -> 1;
+    }
+
+    /**
+     * A weigher that estimates the raster size of an {@link ImageIcon}.
+     * For a {@link BufferedImage} the size of its data buffer is used, otherwise the
+     * icon is assumed to hold 4 bytes per pixel.
+     */
+    static <K> Weigher<K, ImageIcon> imageIcon() {
+        return (key, icon) -> {
+            long bytes = 64; // Rough object overhead for the icon and its entry
+            Image image = icon.getImage();
+            if (image instanceof BufferedImage) {
+                DataBuffer buffer = ((BufferedImage) image).getRaster().getDataBuffer();
+                bytes += (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+            } else {
+                bytes += 4L * Math.max(0, icon.getIconWidth()) * Math.max(0, icon.getIconHeight());
+            }
+            if (key instanceof String) {
+                bytes += 2L * ((String) key).length();
+            }
+            return (int) Math.min(Integer.MAX_VALUE, bytes);
+        };
+    }
+}
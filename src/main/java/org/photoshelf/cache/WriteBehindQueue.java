@@ -0,0 +1,350 @@
+package org.photoshelf.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, coalescing queue of pending disk writes drained in batches by one writer thread.
+ * <p>
+ * Writes are keyed: a put or delete for a key that is still pending replaces the pending
+ * operation in place, so a key is written at most once per batch no matter how often it
+ * changes. The queue is bounded by entry count and by the total weight of the pending
+ * values. When it is full, a speculative put is dropped at once and a regular put waits
+ * for the writer to catch up, giving up after a short time. Both are dropped while the
+ * heap is nearly exhausted. Deletes are never refused, so a removal cannot be lost.
+ * <p>
+ * Operations are written in the order their keys were first queued. {@link #close}
+ * stops accepting operations and lets the writer drain everything still pending in that
+ * order before it exits.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class WriteBehindQueue<K, V> {
+    private static final long BACKPRESSURE_TIMEOUT_MS = 1000;
+    private static final double LOW_MEMORY_THRESHOLD = 0.9;
+
+    /**
+     * Writes one batch of operations, oldest first.
+     */
+    @FunctionalInterface
+    public interface BatchWriter<K, V> {
+        void write(List<PendingWrite<K, V>> batch);
+    }
+
+    /**
+     * A queued put, or a delete when the value is null.
+     */
+    public static final class PendingWrite<K, V> {
+        private final K key;
+        private final V value;
+        private final String sourcePath;
+        private final long sourceModified;
+        private final int weight;
+
+        PendingWrite(K key, V value, String sourcePath, long sourceModified, int weight) {
+            this.key = key;
+            this.value = value;
+            this.sourcePath = sourcePath;
+            this.sourceModified = sourceModified;
+            this.weight = weight;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * @return The value to write, or null if the key is to be deleted.
+         */
+        public V getValue() {
+            return value;
+        }
+
+        public String getSourcePath() {
+            return sourcePath;
+        }
+
+        public long getSourceModified() {
+            return sourceModified;
+        }
+
+        public boolean isDelete() {
+            return value == null;
+        }
+    }
+
+    private final LinkedHashMap<K, PendingWrite<K, V>> pending = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+    private final int maxPendingEntries;
+    private final long maxPendingWeight;
+    private final int batchSize;
+    private final Weigher<? super K, ? super V> weigher;
+    private final BatchWriter<K, V> writer;
+    private final Thread writerThread;
+
+    // Guarded by lock
+    private long pendingWeight;
+    private boolean writing;
+    private boolean closed;
+    private long coalesced;
+    private long dropped;
+
+    /**
+     * Creates the queue and starts its writer thread.
+     *
+     * @param name              Names the writer thread.
+     * @param maxPendingEntries The maximum number of pending operations.
+     * @param maxPendingWeight  The maximum total weight of pending values.
+     * @param batchSize         The maximum number of operations handed to the writer at once.
+     * @param weigher           Estimates the weight of each value.
+     * @param writer            Writes the batches.
+     */
+    public WriteBehindQueue(String name, int maxPendingEntries, long maxPendingWeight, int batchSize,
+                            Weigher<? super K, ? super V> weigher, BatchWriter<K, V> writer) {
+        this.maxPendingEntries = Math.max(1, maxPendingEntries);
+        this.maxPendingWeight = Math.max(1, maxPendingWeight);
+        this.batchSize = Math.max(1, batchSize);
+        this.weigher = weigher;
+        this.writer = writer;
+        this.writerThread = new Thread(this::drain, "write-behind-" + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a put.
+     *
+     * @param key            The key to write.
+     * @param value          The value to write.
+     * @param sourcePath     The source file of the value, or null.
+     * @param sourceModified The last-modified time of the source file.
+     * @param speculative    If true, the put is dropped instead of waiting when the queue is full.
+     * @return true if the put was queued, false if it was dropped.
+     */
+    public boolean put(K key, V value, String sourcePath, long sourceModified, boolean speculative) {
+        PendingWrite<K, V> write = new PendingWrite<>(key, value, sourcePath, sourceModified, weigher.weigh(key, value));
+        lock.lock();
+        try {
+            if (closed) {
+                dropped++;
+                return false;
+            }
+            if (pending.containsKey(key)) {
+                replace(write);
+                return true;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BACKPRESSURE_TIMEOUT_MS);
+            while (isFull(write.weight)) {
+                long remaining = deadline - System.nanoTime();
+                if (speculative || remaining <= 0 || closed || isMemoryLow()) {
+                    dropped++;
+                    return false;
+                }
+                try {
+                    notFull.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped++;
+                    return false;
+                }
+                if (pending.containsKey(key)) {
+                    replace(write);
+                    return true;
+                }
+            }
+            add(write);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a delete, replacing any pending put for the key. Never blocks.
+     *
+     * @param key The key to delete.
+     */
+    public void delete(K key) {
+        PendingWrite<K, V> write = new PendingWrite<>(key, null, null, 0, 0);
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (pending.containsKey(key)) {
+                replace(write);
+            } else {
+                add(write);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the pending operation for a key, so a read sees changes that are not yet on disk.
+     *
+     * @param key The key to look up.
+     * @return The pending put or delete, or null if nothing is pending for the key.
+     */
+    public PendingWrite<K, V> getPending(K key) {
+        lock.lock();
+        try {
+            return pending.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards every pending operation and waits for the batch being written, if any.
+     */
+    public void discardPending() {
+        lock.lock();
+        try {
+            pending.clear();
+            pendingWeight = 0;
+            notFull.signalAll();
+            while (writing) {
+                idle.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting operations and waits for the pending ones to be written in order.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return true if everything was written in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        writerThread.join(Math.max(1, unit.toMillis(timeout)));
+        return !writerThread.isAlive();
+    }
+
+    /**
+     * @return The number of pending operations.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of puts that replaced a pending operation for the same key.
+     */
+    public long coalescedCount() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of puts dropped because the queue was full or closed.
+     */
+    public long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- Guarded by lock ---
+
+    private boolean isFull(int weight) {
+        return !pending.isEmpty()
+                && (pending.size() >= maxPendingEntries || pendingWeight + weight > maxPendingWeight);
+    }
+
+    private void add(PendingWrite<K, V> write) {
+        pending.put(write.key, write);
+        pendingWeight += write.weight;
+        notEmpty.signal();
+    }
+
+    private void replace(PendingWrite<K, V> write) {
+        // Replacing the value keeps the key's original position in the queue
+        PendingWrite<K, V> previous = pending.put(write.key, write);
+        pendingWeight += write.weight - previous.weight;
+        coalesced++;
+    }
+
+    private static boolean isMemoryLow() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return used > runtime.maxMemory() * LOW_MEMORY_THRESHOLD;
+    }
+
+    // --- Writer thread ---
+
+    private void drain() {
+        while (true) {
+            List<PendingWrite<K, V>> batch = new ArrayList<>(batchSize);
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                Iterator<PendingWrite<K, V>> iterator = pending.values().iterator();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    PendingWrite<K, V> write = iterator.next();
+                    iterator.remove();
+                    pendingWeight -= write.weight;
+                    batch.add(write);
+                }
+                writing = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                writer.write(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Error writing cache batch: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                lock.lock();
+                try {
+                    writing = false;
+                    idle.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,9 @@
 package org.photoshelf.plugin.impl;
 
+import org.photoshelf.DecodeGovernor;
 import org.photoshelf.plugin.ImageProcessorPlugin;
 import org.photoshelf.plugin.PreviewProviderPlugin;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
@@ -43,7 +43,10 @@ public class DefaultImagePlugin implements ImageProcessorPlugin, PreviewProvider
         if (file.getName().toLowerCase().endsWith(".gif")) {
             return Toolkit.getDefaultToolkit().createImage(file.getAbsolutePath());
         } else {
-            return ImageIO.read(file);
+            // Full resolution for zooming in, or at least the screen size if decode memory is tight
+            Dimension screen = GraphicsEnvironment.isHeadless() ? new Dimension(1920, 1080)
+                    : Toolkit.getDefaultToolkit().getScreenSize();
+            return DecodeGovernor.getInstance().read(file, Integer.MAX_VALUE, Integer.MAX_VALUE, screen.width, screen.height);
         }
     }
 
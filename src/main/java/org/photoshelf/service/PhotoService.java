@@ -1,5 +1,6 @@
 package org.photoshelf.service;
 
+import org.photoshelf.DecodeScheduler;
 import org.photoshelf.DuplicateImageFinder;
 import org.photoshelf.ImageSupportChecker;
 
@@ -9,20 +10,18 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class PhotoService {
     private final PluginManager pluginManager;
-    private final ExecutorService executor;
+    // Plugin processing such as hashing decodes too, so it shares the decode pool at the lowest priority
+    private final DecodeScheduler.View backgroundView;
 
     public PhotoService() {
         this.pluginManager = PluginManager.getInstance();
-        this.executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        this.backgroundView = DecodeScheduler.getInstance().newView();
     }
 
     public List<File> listFiles(File directory, String filterText, String sortCriteria, boolean descending) {
@@ -93,7 +92,10 @@ public class PhotoService {
 
         int processed = 0;
         for (File image : images) {
-            executor.submit(() -> pluginManager.processImage(image));
+            backgroundView.submit(DecodeScheduler.Priority.BACKGROUND, () -> {
+                pluginManager.processImage(image);
+                return null;
+            });
             processed++;
             if (onProgress != null && processed % 10 == 0) {
                 onProgress.accept(processed);
@@ -117,14 +119,7 @@ public class PhotoService {
     }
     
     public void shutdown() {
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(2, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
-        }
+        backgroundView.cancel();
         pluginManager.shutdown();
     }
 }
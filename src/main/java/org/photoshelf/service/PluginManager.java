@@ -189,6 +189,18 @@ public class PluginManager {
         return null;
     }
 
+    /**
+     * @return true if a plugin makes the thumbnail of the file, rather than ImageIO.
+     */
+    public boolean providesThumbnail(File file) {
+        for (ThumbnailProviderPlugin provider : thumbnailProviders) {
+            if (provider.supportsThumbnail(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Image getPreviewImage(File file) throws IOException {
         for (PreviewProviderPlugin provider : previewProviders) {
             if (provider.supportsPreview(file)) {
@@ -0,0 +1,68 @@
+package org.photoshelf.ui;
+
+import org.photoshelf.cache.ThumbnailAtlas;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * A thumbnail in a {@link ThumbnailAtlas}, referenced by file name and modification time.
+ * The pixels are only copied out of the atlas the first time the icon is painted or
+ * measured, which the grid only does for cells on screen, so restoring a large grid costs
+ * no more than the cells the user can see.
+ */
+public class AtlasIcon implements Icon {
+    private final ThumbnailAtlas atlas;
+    private final String name;
+    private final long lastModified;
+    private final int size;
+    // Resolved on the EDT
+    private ImageIcon resolved;
+    private boolean missing;
+
+    /**
+     * @param atlas        The atlas holding the thumbnail.
+     * @param name         The name of the file within the atlas's directory.
+     * @param lastModified The modification time the thumbnail was stored for.
+     * @param size         The thumbnail size, reported until the thumbnail is resolved.
+     */
+    public AtlasIcon(ThumbnailAtlas atlas, String name, long lastModified, int size) {
+        this.atlas = atlas;
+        this.name = name;
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+        ImageIcon icon = resolve();
+        if (icon != null) {
+            icon.paintIcon(c, g, x, y);
+        }
+    }
+
+    @Override
+    public int getIconWidth() {
+        ImageIcon icon = resolve();
+        return icon != null ? icon.getIconWidth() : size;
+    }
+
+    @Override
+    public int getIconHeight() {
+        ImageIcon icon = resolve();
+        return icon != null ? icon.getIconHeight() : size;
+    }
+
+    private ImageIcon resolve() {
+        if (resolved == null && !missing) {
+            BufferedImage image = atlas.get(name, lastModified);
+            if (image != null) {
+                resolved = new ImageIcon(image);
+            } else {
+                missing = true;
+            }
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,55 @@
+package org.photoshelf.ui;
+
+import org.photoshelf.ThumbnailPlaceholder;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * The icon a cell shows until its thumbnail is ready. It keeps only the few dozen bytes of
+ * the encoded placeholder and stretches its colour grid over the thumbnail's bounds when
+ * painted, which the grid only does for cells on screen, so a directory of tens of
+ * thousands of files costs no thumbnail-sized images before they load.
+ */
+public class PlaceholderIcon implements Icon {
+    private final byte[] placeholder;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param placeholder The encoded placeholder, or null for an empty square.
+     * @param size        The thumbnail size.
+     */
+    public PlaceholderIcon(byte[] placeholder, int size) {
+        Dimension fitted = ThumbnailPlaceholder.fit(placeholder, size, size);
+        this.placeholder = fitted != null ? placeholder : null;
+        this.width = fitted != null ? fitted.width : size;
+        this.height = fitted != null ? fitted.height : size;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+        if (placeholder == null) {
+            return;
+        }
+        BufferedImage grid = ThumbnailPlaceholder.decodeGrid(placeholder);
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(grid, x, y, width, height, null);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    @Override
+    public int getIconWidth() {
+        return width;
+    }
+
+    @Override
+    public int getIconHeight() {
+        return height;
+    }
+}
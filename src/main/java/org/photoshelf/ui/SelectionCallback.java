@@ -1,8 +1,11 @@
 package org.photoshelf.ui;
 
-import javax.swing.*;
+import java.awt.event.MouseEvent;
+import java.util.Collection;
 
 public interface SelectionCallback {
     void clearSelectionUI();
-    void addToSelectionUI(JLabel comp);
+    void addToSelectionUI(Collection<ThumbnailItem> items);
+    boolean isSelected(ThumbnailItem item);
+    void itemClicked(ThumbnailItem item, MouseEvent e);
 }
@@ -0,0 +1,384 @@
+package org.photoshelf.ui;
+
+import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A virtualized grid of thumbnails.
+ * <p>
+ * The grid holds {@link ThumbnailItem}s instead of one component per file. Cells have a
+ * fixed size and are laid out left to right in as many columns as fit, so the position of
+ * any cell and the cell under any point are computed rather than looked up. Painting only
+ * visits the rows inside the clip, and every cell is painted by the same recycled label,
+ * so the cost of layout and painting does not grow with the number of files.
+ * <p>
+ * Clicking a cell reports it to the {@link SelectionCallback}. Dragging from empty space
+ * draws a selection rectangle and adds every cell it touches to the selection.
+ */
+public class ThumbnailGrid extends JComponent implements Scrollable {
+    private static final int GAP = 16;
+    private static final Color SELECTION_FILL = new Color(0, 120, 215, 80);
+    private static final Color SELECTION_OUTLINE = new Color(0, 120, 215);
+
+    private final SelectionCallback selectionCallback;
+    private final List<ThumbnailItem> items = new ArrayList<>();
+    // The items that are not hidden, in display order, and the position of each
+    private final List<ThumbnailItem> shown = new ArrayList<>();
+    private final Map<ThumbnailItem, Integer> shownIndex = new IdentityHashMap<>();
+    private final CellRendererPane rendererPane = new CellRendererPane();
+    private final JLabel renderer = new JLabel();
+    private final Border normalBorder = BorderFactory.createEmptyBorder(4, 4, 4, 4);
+    private final Border duplicateBorder = BorderFactory.createLineBorder(Color.RED, 2);
+    private Border selectedBorder;
+    private int cellWidth;
+    private int cellHeight;
+    private Rectangle selectionRectangle;
+
+    public ThumbnailGrid(SelectionCallback selectionCallback, int thumbnailSize) {
+        this.selectionCallback = selectionCallback;
+        setOpaque(true);
+        setCellSize(thumbnailSize);
+
+        renderer.setHorizontalAlignment(JLabel.CENTER);
+        renderer.setHorizontalTextPosition(JLabel.CENTER);
+        renderer.setVerticalTextPosition(JLabel.BOTTOM);
+        add(rendererPane);
+
+        MouseAdapter mouseHandler = new GridMouseHandler();
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+    }
+
+    // --- Items ---
+
+    /**
+     * @return Every item in display order, including hidden ones.
+     */
+    public List<ThumbnailItem> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * @return The items that are not hidden, in display order.
+     */
+    public List<ThumbnailItem> getShownItems() {
+        return Collections.unmodifiableList(shown);
+    }
+
+    public int getItemCount() {
+        return items.size();
+    }
+
+    public void setItems(Collection<ThumbnailItem> newItems) {
+        items.clear();
+        items.addAll(newItems);
+        refilter();
+    }
+
+    public void addItem(ThumbnailItem item) {
+        items.add(item);
+        if (!item.isHidden()) {
+            shownIndex.put(item, shown.size());
+            shown.add(item);
+        }
+        revalidate();
+        repaintCell(item);
+        fireStateChanged();
+    }
+
+    public void addItems(Collection<ThumbnailItem> newItems) {
+        items.addAll(newItems);
+        refilter();
+    }
+
+    public void removeItem(ThumbnailItem item) {
+        removeItems(List.of(item));
+    }
+
+    public void removeItems(Collection<ThumbnailItem> removed) {
+        Set<ThumbnailItem> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(removed);
+        items.removeIf(toRemove::contains);
+        refilter();
+    }
+
+    public void clear() {
+        items.clear();
+        refilter();
+    }
+
+    public void sort(Comparator<ThumbnailItem> comparator) {
+        items.sort(comparator);
+        refilter();
+    }
+
+    /**
+     * Rebuilds the display order after items were hidden or shown.
+     */
+    public void refilter() {
+        shown.clear();
+        shownIndex.clear();
+        for (ThumbnailItem item : items) {
+            if (!item.isHidden()) {
+                shownIndex.put(item, shown.size());
+                shown.add(item);
+            }
+        }
+        revalidate();
+        repaint();
+        fireStateChanged();
+    }
+
+    /**
+     * Adds a listener told when items are added, removed, reordered or filtered, since any
+     * of these can move different items into the visible area.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listenerList.add(ChangeListener.class, listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listenerList.remove(ChangeListener.class, listener);
+    }
+
+    private void fireStateChanged() {
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : listenerList.getListeners(ChangeListener.class)) {
+            listener.stateChanged(event);
+        }
+    }
+
+    /**
+     * Repaints an item after its icon or marking changed.
+     */
+    public void itemChanged(ThumbnailItem item) {
+        repaintCell(item);
+    }
+
+    // --- Geometry ---
+
+    /**
+     * Sets the size of the thumbnails; cells leave room for the border and the file name.
+     */
+    public void setCellSize(int thumbnailSize) {
+        cellWidth = thumbnailSize + 8;
+        cellHeight = thumbnailSize + 40;
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * @return The item under a point, or null if the point is between or after the cells.
+     */
+    public ThumbnailItem itemAt(Point point) {
+        int column = (point.x - GAP) / (cellWidth + GAP);
+        int row = (point.y - GAP) / (cellHeight + GAP);
+        if (point.x < GAP || point.y < GAP || column >= getColumnCount()) {
+            return null;
+        }
+        int index = row * getColumnCount() + column;
+        if (index >= shown.size() || !getCellBounds(index).contains(point)) {
+            return null;
+        }
+        return shown.get(index);
+    }
+
+    /**
+     * @return The bounds of an item's cell, or null if the item is not shown.
+     */
+    public Rectangle getCellBounds(ThumbnailItem item) {
+        Integer index = shownIndex.get(item);
+        return index == null ? null : getCellBounds(index);
+    }
+
+    /**
+     * @return The shown items whose cells intersect a rectangle, in display order.
+     */
+    public List<ThumbnailItem> getItemsIn(Rectangle area) {
+        List<ThumbnailItem> result = new ArrayList<>();
+        int columns = getColumnCount();
+        int firstRow = Math.max(0, (area.y - GAP) / (cellHeight + GAP));
+        int lastRow = (area.y + area.height) / (cellHeight + GAP);
+        int firstColumn = Math.max(0, (area.x - GAP) / (cellWidth + GAP));
+        int lastColumn = Math.min(columns - 1, (area.x + area.width) / (cellWidth + GAP));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int index = row * columns + column;
+                if (index < shown.size() && area.intersects(getCellBounds(index))) {
+                    result.add(shown.get(index));
+                }
+            }
+        }
+        return result;
+    }
+
+    public void setSelectionRectangle(Rectangle selectionRectangle) {
+        this.selectionRectangle = selectionRectangle;
+        repaint();
+    }
+
+    private int getColumnCount() {
+        int width = getWidth() > 0 ? getWidth() : getPreferredWidth();
+        return Math.max(1, (width - GAP) / (cellWidth + GAP));
+    }
+
+    private Rectangle getCellBounds(int index) {
+        int columns = getColumnCount();
+        int x = GAP + (index % columns) * (cellWidth + GAP);
+        int y = GAP + (index / columns) * (cellHeight + GAP);
+        return new Rectangle(x, y, cellWidth, cellHeight);
+    }
+
+    private int getPreferredWidth() {
+        Container parent = getParent();
+        return parent instanceof JViewport ? parent.getWidth() : GAP + 4 * (cellWidth + GAP);
+    }
+
+    private void repaintCell(ThumbnailItem item) {
+        Rectangle bounds = getCellBounds(item);
+        if (bounds != null) {
+            repaint(bounds);
+        }
+    }
+
+    // --- Painting ---
+
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        selectedBorder = null;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+
+        if (selectedBorder == null) {
+            selectedBorder = BorderFactory.createLineBorder(UIManager.getColor("Component.focusedBorderColor"), 2);
+        }
+        for (ThumbnailItem item : getItemsIn(clip)) {
+            renderer.setIcon(item.getIcon());
+            renderer.setText(item.getDisplayName());
+            renderer.setBorder(selectionCallback.isSelected(item) ? selectedBorder
+                    : item.isDuplicate() ? duplicateBorder : normalBorder);
+            rendererPane.paintComponent(g, renderer, this, getCellBounds(shownIndex.get(item)));
+        }
+        // Drop the references so the last painted icon can be collected
+        renderer.setIcon(null);
+
+        if (selectionRectangle != null) {
+            Graphics2D g2d = (Graphics2D) g.create();
+            g2d.setColor(SELECTION_FILL);
+            g2d.fill(selectionRectangle);
+            g2d.setColor(SELECTION_OUTLINE);
+            g2d.draw(selectionRectangle);
+            g2d.dispose();
+        }
+    }
+
+    // --- Scrollable ---
+
+    @Override
+    public Dimension getPreferredSize() {
+        int columns = getColumnCount();
+        int rows = (shown.size() + columns - 1) / columns;
+        return new Dimension(getPreferredWidth(), GAP + rows * (cellHeight + GAP));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 16;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return visibleRect.height;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        // Fill the viewport when the grid is short, so empty space below it still starts a selection
+        Container parent = getParent();
+        return parent instanceof JViewport && parent.getHeight() > getPreferredSize().height;
+    }
+
+    private class GridMouseHandler extends MouseAdapter {
+        private Point selectionStart;
+
+        @Override
+        public void mousePressed(MouseEvent e) {
+            if (itemAt(e.getPoint()) == null) {
+                selectionStart = e.getPoint();
+                if (!e.isControlDown() && !e.isMetaDown()) {
+                    selectionCallback.clearSelectionUI();
+                    repaint();
+                }
+            }
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            if (selectionStart != null) {
+                selectionStart = null;
+                setSelectionRectangle(null);
+            }
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            if (selectionStart == null) {
+                return;
+            }
+            Point end = e.getPoint();
+            Rectangle area = new Rectangle(Math.min(selectionStart.x, end.x), Math.min(selectionStart.y, end.y),
+                    Math.abs(selectionStart.x - end.x), Math.abs(selectionStart.y - end.y));
+            selectionCallback.addToSelectionUI(getItemsIn(area));
+            setSelectionRectangle(area);
+            scrollRectToVisible(new Rectangle(end.x, end.y, 1, 1));
+        }
+
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            ThumbnailItem item = itemAt(e.getPoint());
+            if (item != null) {
+                selectionCallback.itemClicked(item, e);
+                repaint();
+            }
+        }
+
+        @Override
+        public void mouseMoved(MouseEvent e) {
+            setCursor(itemAt(e.getPoint()) != null ? Cursor.getPredefinedCursor(Cursor.HAND_CURSOR) : null);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.photoshelf.ui;
+
+import javax.swing.*;
+import java.io.File;
+
+/**
+ * One file in the {@link ThumbnailGrid}: the file, its current icon and how it is marked.
+ * Items are plain objects; the grid paints them with a shared renderer, so a folder of any
+ * size costs no Swing components.
+ * <p>
+ * An item also remembers the size, modification time and fingerprint the file had when its
+ * thumbnail was loaded, so the grid can be recorded without touching the files again.
+ */
+public class ThumbnailItem {
+    private final File file;
+    private final String displayName;
+    private volatile Icon icon;
+    private volatile boolean duplicate;
+    private volatile boolean hidden;
+    private volatile long length = -1;
+    private volatile long lastModified = -1;
+    private volatile String fingerprint;
+
+    public ThumbnailItem(File file, Icon icon) {
+        this.file = file;
+        this.icon = icon;
+        String name = file.getName();
+        this.displayName = name.length() > 20 ? name.substring(0, 17) + "..." : name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The file name, shortened to fit under the thumbnail.
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return The icon, or null if nothing has been loaded yet.
+     */
+    public Icon getIcon() {
+        return icon;
+    }
+
+    /**
+     * Replaces the icon. Call {@link ThumbnailGrid#itemChanged} on the EDT to show it.
+     */
+    public void setIcon(Icon icon) {
+        this.icon = icon;
+    }
+
+    /**
+     * Records the state of the file its thumbnail was loaded from.
+     *
+     * @param length       The size of the file.
+     * @param lastModified The modification time of the file.
+     * @param fingerprint  The content fingerprint, or null if it is not known.
+     */
+    public void setSourceState(long length, long lastModified, String fingerprint) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return The recorded size of the file, or -1 if none was recorded.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return The recorded modification time of the file, or -1 if none was recorded.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return The recorded content fingerprint, or null.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the item is outlined as a duplicate.
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    public void setDuplicate(boolean duplicate) {
+        this.duplicate = duplicate;
+    }
+
+    /**
+     * @return true if the item is filtered out of the grid.
+     */
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    /**
+     * Filters the item out of the grid or back in. Call {@link ThumbnailGrid#refilter()}
+     * after changing items.
+     */
+    public void setHidden(boolean hidden) {
+        this.hidden = hidden;
+    }
+}